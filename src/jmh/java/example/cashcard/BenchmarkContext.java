@@ -0,0 +1,51 @@
+package example.cashcard;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+// Hilfsmethoden, um für einen Benchmark die Anwendung mit einer eingebetteten
+// H2-Datenbank zu starten und mit vielen CashCards zu füllen
+final class BenchmarkContext {
+    private static final int SEED_CHUNK = 10_000;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+        List<String> allProperties = new ArrayList<>(List.of(
+                "spring.main.banner-mode=off",
+                "logging.level.root=warn",
+                "server.port=0"));
+        allProperties.addAll(List.of(properties));
+        return new SpringApplicationBuilder(CashCardApplication.class)
+                .web(webApplicationType)
+                .properties(allProperties.toArray(String[]::new))
+                .run();
+    }
+
+    // Legt rows CashCards an, verteilt auf owners Besitzer (owner0, owner1, ...).
+    // Bei owners = 1 gehören alle CashCards dem Benutzer sarah1.
+    static void seed(ConfigurableApplicationContext context, int rows, int owners) {
+        CashCardBulkWriter writer = context.getBean(CashCardBulkWriter.class);
+        for (int owner = 0; owner < owners; owner++) {
+            String name = owners == 1 ? "sarah1" : "owner" + owner;
+            int rowsForOwner = rows / owners;
+            List<CashCard> chunk = new ArrayList<>(SEED_CHUNK);
+            for (int i = 0; i < rowsForOwner; i++) {
+                chunk.add(new CashCard(null, BigDecimal.valueOf(i % 100_000, 2), name));
+                if (chunk.size() == SEED_CHUNK) {
+                    writer.write(chunk, name);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writer.write(chunk, name);
+            }
+        }
+    }
+}
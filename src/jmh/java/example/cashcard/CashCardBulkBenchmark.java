@@ -0,0 +1,62 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Vergleicht den Massenimport per JDBC-Batch mit einzelnen save-Aufrufen.
+// Das Ergebnis ist in Zeilen pro Sekunde angegeben.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CashCardBulkBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"100", "1000"})
+    int chunkSize;
+
+    private ConfigurableApplicationContext context;
+    private CashCardBulkWriter bulkWriter;
+    private CashCardRepository repository;
+    private List<CashCard> cashCards;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start(WebApplicationType.NONE, "cashcard.bulk.chunk-size=" + chunkSize);
+        bulkWriter = context.getBean(CashCardBulkWriter.class);
+        repository = context.getBean(CashCardRepository.class);
+        cashCards = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            cashCards.add(new CashCard(null, BigDecimal.valueOf(i, 2), "sarah1"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public CashCardBulkResult bulkInsert() {
+        return bulkWriter.write(cashCards, "sarah1");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Iterable<CashCard> singleRowSave() {
+        List<CashCard> saved = new ArrayList<>(ROWS);
+        for (CashCard cashCard : cashCards) {
+            saved.add(repository.save(cashCard));
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,89 @@
+package example.cashcard;
+
+import jakarta.servlet.Filter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+// Misst den vollständigen Weg einer Anfrage durch die Security-Filterkette und den
+// CashCardController mit MockMvc. Mit cacheSize=0 ist der CashCardCache abgeschaltet,
+// mit credentialCacheTtl=0s wird bei jeder Anfrage BCrypt ausgeführt.
+// Rate- und Concurrency-Limit sind abgeschaltet, da alle Anfragen von sarah1 kommen.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CashCardControllerBenchmark {
+    private static final int HOT_IDS = 100;
+    private static final String BASIC_AUTH = "Basic "
+            + Base64.getEncoder().encodeToString("sarah1:abc123".getBytes(StandardCharsets.UTF_8));
+
+    @Param({"10000", "0"})
+    String cacheSize;
+
+    @Param({"1m", "0s"})
+    String credentialCacheTtl;
+
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private List<Long> hotIds;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start(WebApplicationType.SERVLET,
+                "cashcard.cache.maximum-size=" + cacheSize,
+                "cashcard.security.credential-cache.time-to-live=" + credentialCacheTtl,
+                "cashcard.rate-limit.enabled=false",
+                "cashcard.concurrency-limit.enabled=false");
+        BenchmarkContext.seed(context, 10_000, 1);
+        hotIds = context.getBean(JdbcTemplate.class)
+                .queryForList("SELECT ID FROM cash_card ORDER BY ID LIMIT " + HOT_IDS, Long.class);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+                .addFilters(context.getBean("springSecurityFilterChain", Filter.class))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String findHotId() throws Exception {
+        Long id = hotIds.get(ThreadLocalRandom.current().nextInt(HOT_IDS));
+        return mockMvc.perform(get("/cashcards/{id}", id).header(HttpHeaders.AUTHORIZATION, BASIC_AUTH))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String findAll() throws Exception {
+        return mockMvc.perform(get("/cashcards").header(HttpHeaders.AUTHORIZATION, BASIC_AUTH))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public int createCashCard() throws Exception {
+        return mockMvc.perform(post("/cashcards")
+                        .header(HttpHeaders.AUTHORIZATION, BASIC_AUTH)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"amount\": 10.00}"))
+                .andReturn().getResponse().getStatus();
+    }
+}
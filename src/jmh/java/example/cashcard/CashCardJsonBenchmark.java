@@ -0,0 +1,70 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Misst die Jackson-Serialisierung einer CashCard und einer Liste von CashCards,
+// jeweils als JSON und als CBOR. Die Größe der Ergebnisse wird beim Start ausgegeben.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CashCardJsonBenchmark {
+
+    @Param({"20", "1000"})
+    int listSize;
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper cborMapper;
+    private CashCard cashCard;
+    private List<CashCard> cashCards;
+    private byte[] cashCardJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        cborMapper = Jackson2ObjectMapperBuilder.cbor().build();
+        cashCard = new CashCard(99L, new BigDecimal("123.45"), "sarah1");
+        cashCards = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            cashCards.add(new CashCard((long) i, BigDecimal.valueOf(i, 2), "sarah1"));
+        }
+        cashCardJson = objectMapper.writeValueAsBytes(cashCard);
+        System.out.printf("%nBytes pro CashCard: JSON %d, CBOR %d; pro Liste mit %d: JSON %d, CBOR %d%n",
+                cashCardJson.length, cborMapper.writeValueAsBytes(cashCard).length, listSize,
+                objectMapper.writeValueAsBytes(cashCards).length, cborMapper.writeValueAsBytes(cashCards).length);
+    }
+
+    @Benchmark
+    public byte[] serializeCashCard() throws Exception {
+        return objectMapper.writeValueAsBytes(cashCard);
+    }
+
+    @Benchmark
+    public byte[] serializeCashCardList() throws Exception {
+        return objectMapper.writeValueAsBytes(cashCards);
+    }
+
+    @Benchmark
+    public CashCard deserializeCashCard() throws Exception {
+        return objectMapper.readValue(cashCardJson, CashCard.class);
+    }
+
+    @Benchmark
+    public byte[] serializeCashCardAsCbor() throws Exception {
+        return cborMapper.writeValueAsBytes(cashCard);
+    }
+
+    @Benchmark
+    public byte[] serializeCashCardListAsCbor() throws Exception {
+        return cborMapper.writeValueAsBytes(cashCards);
+    }
+}
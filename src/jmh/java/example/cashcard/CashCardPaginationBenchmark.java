@@ -0,0 +1,68 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Vergleicht OFFSET-Paginierung (findByOwner mit PageRequest) und Keyset-Paginierung
+// (findAfterAmountAndId) für die erste Seite und für Seite 10.000 bei 20 Einträgen pro Seite
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CashCardPaginationBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1", "10000"})
+    int page;
+
+    private ConfigurableApplicationContext context;
+    private CashCardRepository repository;
+    private BigDecimal cursorAmount;
+    private Long cursorId;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start(WebApplicationType.NONE);
+        BenchmarkContext.seed(context, (page + 1) * PAGE_SIZE, 1);
+        repository = context.getBean(CashCardRepository.class);
+        // Sortierschlüssel des letzten Eintrags der vorherigen Seite, wie ihn der Cursor enthalten würde
+        if (page > 1) {
+            Map<String, Object> last = context.getBean(JdbcTemplate.class).queryForMap(
+                    "SELECT amount, id FROM cash_card WHERE owner = 'sarah1' ORDER BY amount, id LIMIT 1 OFFSET ?",
+                    (page - 1) * PAGE_SIZE - 1);
+            cursorAmount = (BigDecimal) last.get("AMOUNT");
+            cursorId = ((Number) last.get("ID")).longValue();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<CashCard> offset() {
+        return repository.findByOwner("sarah1",
+                PageRequest.of(page - 1, PAGE_SIZE, Sort.by("amount", "id")));
+    }
+
+    @Benchmark
+    public List<CashCard> keyset() {
+        if (page == 1) {
+            return repository.findFirstByAmountAndId("sarah1", PAGE_SIZE + 1);
+        }
+        return repository.findAfterAmountAndId("sarah1", cursorAmount, cursorId, PAGE_SIZE + 1);
+    }
+}
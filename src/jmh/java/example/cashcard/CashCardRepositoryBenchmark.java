@@ -0,0 +1,78 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Misst die Abfragen des CashCardRepository gegen eine eingebettete H2-Datenbank
+// mit rows CashCards, verteilt auf owners Besitzer
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CashCardRepositoryBenchmark {
+
+    @Param({"1000000"})
+    int rows;
+
+    @Param({"10000"})
+    int owners;
+
+    private ConfigurableApplicationContext context;
+    private CashCardRepository repository;
+    private List<Long> ids;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkContext.start(WebApplicationType.NONE);
+        BenchmarkContext.seed(context, rows, owners);
+        repository = context.getBean(CashCardRepository.class);
+        ids = context.getBean(JdbcTemplate.class).queryForList("SELECT ID FROM cash_card ORDER BY ID", Long.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object findById() {
+        return repository.findById(randomId());
+    }
+
+    @Benchmark
+    public CashCard findByIdAndOwner() {
+        Long id = randomId();
+        return repository.findByIdAndOwner(id, "owner" + ownerOf(id));
+    }
+
+    @Benchmark
+    public Page<CashCard> findAllFirstPage() {
+        return repository.findAll(PageRequest.of(0, 20, Sort.by("amount")));
+    }
+
+    @Benchmark
+    public Page<CashCard> findByOwnerFirstPage() {
+        return repository.findByOwner("owner" + ThreadLocalRandom.current().nextInt(owners),
+                PageRequest.of(0, 20, Sort.by("amount")));
+    }
+
+    private Long randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    // Die CashCards werden beim Füllen blockweise pro Besitzer angelegt
+    private int ownerOf(Long id) {
+        return (int) ((id - ids.get(0)) / (rows / owners));
+    }
+}
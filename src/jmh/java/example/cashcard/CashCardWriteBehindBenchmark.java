@@ -0,0 +1,61 @@
+package example.cashcard;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Vergleicht angenommene CashCards pro Sekunde im Write-Behind-Modus (Journal mit force,
+// Schreiben im Hintergrund) mit einem save pro CashCard. Mit 16 Threads teilen sich
+// viele gleichzeitige Anfragen ein force auf das Journal. Ist die Warteschlange voll,
+// zählt die abgelehnte Anfrage nicht als angenommen.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CashCardWriteBehindBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("42.00");
+
+    private ConfigurableApplicationContext context;
+    private CashCardWriteBehind writeBehind;
+    private CashCardRepository repository;
+    private Path journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        journal = Files.createTempFile("cashcard-write-behind", ".journal");
+        context = BenchmarkContext.start(WebApplicationType.NONE,
+                "cashcard.write-behind.enabled=true",
+                "cashcard.write-behind.journal=" + journal);
+        writeBehind = context.getBean(CashCardWriteBehind.class);
+        repository = context.getBean(CashCardRepository.class);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        Files.deleteIfExists(journal);
+    }
+
+    @Benchmark
+    public Long writeBehind() {
+        try {
+            return writeBehind.accept("sarah1", AMOUNT);
+        } catch (CashCardWriteBehind.QueueFullException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Long save() {
+        return repository.save(new CashCard(null, AMOUNT, "sarah1")).id();
+    }
+}
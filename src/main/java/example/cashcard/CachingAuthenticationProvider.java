@@ -0,0 +1,114 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+// Der CachingAuthenticationProvider merkt sich für kurze Zeit bereits geprüfte
+// Anmeldedaten, damit HTTP Basic nicht bei jeder Anfrage BCrypt ausführen muss.
+// Gespeichert wird pro Benutzer nur ein HMAC-SHA256 über Benutzername, Passwort und
+// den gespeicherten Passwort-Hash, mit einem zufälligen Schlüssel pro Prozess.
+// Ändert sich der Benutzer (z.B. ein neues Passwort), passt der HMAC nicht mehr
+// und die Anmeldung wird wieder vollständig vom Delegate geprüft. Ein gelöschter
+// Benutzer wird schon von loadUserByUsername abgelehnt. Der Cache muss deshalb bei
+// Änderungen an den Benutzern nicht geleert werden.
+class CachingAuthenticationProvider implements AuthenticationProvider {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final UserDetailsService userDetailsService;
+    private final AuthenticationProvider delegate;
+    private final Cache<String, byte[]> verifiedCredentials;
+    private final SecretKeySpec key;
+    // Mac.getInstance sucht bei jedem Aufruf den Provider; jeder Thread behält daher seine Instanz
+    private final ThreadLocal<Mac> mac;
+
+    CachingAuthenticationProvider(UserDetailsService userDetailsService, AuthenticationProvider delegate,
+                                  Duration timeToLive, long maximumSize) {
+        this.userDetailsService = userDetailsService;
+        this.delegate = delegate;
+        this.verifiedCredentials = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .build();
+        byte[] salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        this.key = new SecretKeySpec(salt, HMAC_ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        Object credentials = authentication.getCredentials();
+        if (credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+        String username = authentication.getName();
+        UserDetails user;
+        try {
+            user = userDetailsService.loadUserByUsername(username);
+        } catch (UsernameNotFoundException e) {
+            // Unbekannte Benutzer werden vom Delegate abgelehnt
+            return delegate.authenticate(authentication);
+        }
+
+        byte[] fingerprint = fingerprint(username, credentials.toString(), user.getPassword());
+        byte[] verified = verifiedCredentials.getIfPresent(username);
+        if (verified != null && MessageDigest.isEqual(verified, fingerprint) && isUsable(user)) {
+            UsernamePasswordAuthenticationToken result = UsernamePasswordAuthenticationToken
+                    .authenticated(user, null, user.getAuthorities());
+            result.setDetails(authentication.getDetails());
+            return result;
+        }
+
+        Authentication result = delegate.authenticate(authentication);
+        verifiedCredentials.put(username, fingerprint);
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+
+    private static boolean isUsable(UserDetails user) {
+        return user.isEnabled() && user.isAccountNonLocked()
+                && user.isAccountNonExpired() && user.isCredentialsNonExpired();
+    }
+
+    // doFinal setzt den Mac zurück, sodass er für die nächste Anmeldung bereit ist
+    private byte[] fingerprint(String username, String password, String encodedPassword) {
+        Mac mac = this.mac.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(password.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        if (encodedPassword != null) {
+            mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+        return mac.doFinal();
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " is not available", e);
+        }
+    }
+}
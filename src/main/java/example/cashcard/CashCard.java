@@ -1,6 +1,21 @@
 package example.cashcard;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceCreator;
+import org.springframework.data.annotation.ReadOnlyProperty;
 
-record CashCard(@Id Long id, Double amount, String owner) {
+import java.math.BigDecimal;
+
+// Die Version wird von der Datenbank gepflegt (Standardwert 0, jede Buchung erhöht sie
+// um 1) und dient als ETag. Sie wird deshalb nie geschrieben und nicht als JSON geliefert.
+record CashCard(@Id Long id, BigDecimal amount, String owner, @JsonIgnore @ReadOnlyProperty Long version) {
+
+    @PersistenceCreator
+    CashCard {
+    }
+
+    CashCard(Long id, BigDecimal amount, String owner) {
+        this(id, amount, owner, null);
+    }
 }
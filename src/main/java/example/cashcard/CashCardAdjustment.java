@@ -0,0 +1,7 @@
+package example.cashcard;
+
+import java.math.BigDecimal;
+
+// Anfrage zum Auf- oder Abbuchen eines Betrags auf einer CashCard
+record CashCardAdjustment(BigDecimal amount) {
+}
@@ -2,12 +2,22 @@ package example.cashcard;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@ImportRuntimeHints(CashCardRuntimeHints.class)
 public class CashCardApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(CashCardApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(CashCardApplication.class, args);
+		// Trainingslauf für das CDS-Archiv (siehe cdsArchive in build.gradle): nach dem Start
+		// wieder beenden, damit die JVM die geladenen Klassen in das Archiv schreibt
+		if (Boolean.getBoolean("cashcard.cds.training-run")) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
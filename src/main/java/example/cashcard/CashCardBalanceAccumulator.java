@@ -0,0 +1,176 @@
+package example.cashcard;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Der CashCardBalanceAccumulator sammelt Aufbuchungen für sehr häufig genutzte
+// CashCards (cashcard.balance.hot-cards) im Speicher und schreibt sie gebündelt
+// in die Datenbank. Jede CashCard hat mehrere Zähler (Stripes) in Cent, damit
+// gleichzeitige Aufbuchungen nicht um dieselbe Speicherstelle konkurrieren.
+// Beim Schreiben wird jeder Zähler atomar auf 0 gesetzt, sodass keine Aufbuchung
+// verloren geht. Noch nicht geschriebene Beträge gehen bei einem Absturz verloren.
+// Eine Aufbuchung wird nur angenommen, wenn die CashCard existiert und dem Benutzer
+// gehört. Der Besitzer wird dafür einmal pro CashCard gelesen und danach im Speicher
+// gehalten, da CashCards weder gelöscht werden noch den Besitzer wechseln.
+// Ebenso wird nur angenommen, was zusammen mit dem zuletzt geschriebenen Betrag und den
+// gesammelten Aufbuchungen in einen long in Cent passt, also auch in NUMERIC(19, 2).
+// Gleichzeitige Aufbuchungen während eines Flush können die Grenze knapp überschreiten;
+// dann lehnt die Datenbank den Flush endgültig ab, und die Beträge werden mit einem
+// Fehler im Log verworfen, statt jeden weiteren Flush und jede Abbuchung zu blockieren.
+@Component
+class CashCardBalanceAccumulator {
+    private static final Logger log = LoggerFactory.getLogger(CashCardBalanceAccumulator.class);
+    private static final int STRIPES = 16;
+    private static final int SCALE = 2;
+    // Größter Betrag, dessen Cent in einen long passen
+    private static final BigDecimal MAX_CENTS_AMOUNT = BigDecimal.valueOf(Long.MAX_VALUE, SCALE);
+
+    private final CashCardRepository cashCardRepository;
+    private final CashCardCache cashCardCache;
+    private final CashCardSummaries cashCardSummaries;
+    private final CashCardEventOutbox cashCardEventOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<Long, AtomicLongArray> pendingCents = new ConcurrentHashMap<>();
+    private final Map<Long, String> owners = new ConcurrentHashMap<>();
+    // Zuletzt gelesener Betrag in Cent; Abbuchungen verringern ihn, die Grenze ist also vorsichtig
+    private final Map<Long, Long> writtenCents = new ConcurrentHashMap<>();
+
+    CashCardBalanceAccumulator(CashCardRepository cashCardRepository,
+                               CashCardCache cashCardCache,
+                               CashCardSummaries cashCardSummaries,
+                               CashCardEventOutbox cashCardEventOutbox,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${cashcard.balance.hot-cards:}") Set<Long> hotCards) {
+        this.cashCardRepository = cashCardRepository;
+        this.cashCardCache = cashCardCache;
+        this.cashCardSummaries = cashCardSummaries;
+        this.cashCardEventOutbox = cashCardEventOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        for (Long id : hotCards) {
+            pendingCents.put(id, new AtomicLongArray(STRIPES));
+        }
+    }
+
+    // Gibt an, ob Aufbuchungen für diese CashCard gesammelt werden
+    boolean accumulates(Long id) {
+        return pendingCents.containsKey(id);
+    }
+
+    // Merkt sich eine Aufbuchung; der Betrag muss höchstens zwei Nachkommastellen haben.
+    // Ergibt ACCEPTED, NOT_FOUND, wenn es die CashCard für diesen Besitzer nicht gibt,
+    // oder AMOUNT_TOO_LARGE, wenn das Guthaben danach zu groß wäre.
+    CashCardBalances.Result credit(Long id, String owner, BigDecimal amount) {
+        if (!owner.equals(ownerOf(id))) {
+            return CashCardBalances.Result.NOT_FOUND;
+        }
+        AtomicLongArray stripes = pendingCents.get(id);
+        long cents;
+        try {
+            // Läuft eine der Summen über, wäre das Guthaben zu groß
+            cents = amount.movePointRight(SCALE).longValueExact();
+            long total = Math.addExact(writtenCents.get(id), cents);
+            for (int i = 0; i < STRIPES; i++) {
+                total = Math.addExact(total, stripes.get(i));
+            }
+        } catch (ArithmeticException e) {
+            return CashCardBalances.Result.AMOUNT_TOO_LARGE;
+        }
+        stripes.addAndGet(ThreadLocalRandom.current().nextInt(STRIPES), cents);
+        return CashCardBalances.Result.ACCEPTED;
+    }
+
+    // Der Besitzer einer CashCard oder null, wenn es sie nicht gibt. Nur ein gefundener
+    // Besitzer wird gespeichert, eine später angelegte CashCard wird also erkannt.
+    private String ownerOf(Long id) {
+        return owners.computeIfAbsent(id, key -> cashCardRepository.findById(key)
+                .map(cashCard -> {
+                    writtenCents.put(key, toCents(cashCard.amount()));
+                    return cashCard.owner();
+                })
+                .orElse(null));
+    }
+
+    // Ein gespeicherter Betrag in Cent; passt er nicht in einen long, Long.MAX_VALUE,
+    // sodass keine weitere Aufbuchung angenommen wird
+    private static long toCents(BigDecimal amount) {
+        return amount.compareTo(MAX_CENTS_AMOUNT) > 0 ? Long.MAX_VALUE : amount.movePointRight(SCALE).longValue();
+    }
+
+    // Schreibt die gesammelten Aufbuchungen aller CashCards
+    @Scheduled(fixedDelayString = "${cashcard.balance.flush-interval:100}")
+    void flush() {
+        for (Long id : pendingCents.keySet()) {
+            flush(id);
+        }
+    }
+
+    // Schreibt die gesammelten Aufbuchungen einer CashCard als eine einzige Anweisung,
+    // zusammen mit den Kennzahlen ihres Besitzers und einem einzigen Ereignis für den
+    // Änderungs-Feed. Schlägt die Transaktion vorübergehend fehl, werden die Beträge wieder
+    // gesammelt und beim nächsten Flush erneut geschrieben. Lehnt die Datenbank den Betrag
+    // ab (z.B. zu groß für NUMERIC(19, 2)), gelingt auch kein späterer Versuch; die Beträge
+    // werden dann verworfen und mit Betrag und CashCard im Log festgehalten.
+    void flush(Long id) {
+        AtomicLongArray stripes = pendingCents.get(id);
+        if (stripes == null) {
+            return;
+        }
+        // Als BigDecimal summiert, damit auch eine knapp überschrittene Grenze nicht überläuft
+        long[] taken = new long[STRIPES];
+        BigDecimal cents = BigDecimal.ZERO;
+        for (int i = 0; i < STRIPES; i++) {
+            taken[i] = stripes.getAndSet(i, 0);
+            cents = cents.add(BigDecimal.valueOf(taken[i]));
+        }
+        if (cents.signum() == 0) {
+            return;
+        }
+        BigDecimal delta = cents.movePointLeft(SCALE);
+        BigDecimal written;
+        try {
+            written = transactionTemplate.execute(status -> {
+                // Die CashCard wurde beim Annehmen geprüft; fehlt sie hier, wurde sie
+                // außerhalb der Anwendung gelöscht
+                if (!cashCardRepository.addToAmount(id, delta)) {
+                    log.error("Dropping {} of credits for deleted cash card {}", delta, id);
+                    return null;
+                }
+                cashCardSummaries.amountChanged(owners.get(id), id, delta);
+                cashCardEventOutbox.record(CashCardEvent.Type.UPDATED, List.of(id));
+                return cashCardRepository.findAmountById(id);
+            });
+        } catch (DataIntegrityViolationException e) {
+            log.error("Dropping {} of credits for cash card {} rejected by the database", delta, id, e);
+            return;
+        } catch (RuntimeException e) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes.addAndGet(i, taken[i]);
+            }
+            throw e;
+        }
+        if (written != null) {
+            writtenCents.put(id, toCents(written));
+        }
+        cashCardCache.evict(id);
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,88 @@
+package example.cashcard;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+// CashCardBalances bucht Beträge auf und ab. Jede Änderung ist eine einzelne
+// bedingte UPDATE-Anweisung, daher gehen bei gleichzeitigen Buchungen keine
+// Änderungen verloren. In derselben Transaktion werden die Kennzahlen des Besitzers
+// aktualisiert (CashCardSummaries) und ein Ereignis für den Änderungs-Feed geschrieben
+// (CashCardEventOutbox). Nach dem Festschreiben wird die CashCard aus dem
+// Cache entfernt.
+// Gebucht wird nur auf CashCards des angemeldeten Besitzers.
+@Component
+class CashCardBalances {
+
+    enum Result {
+        // Die Buchung wurde geschrieben
+        APPLIED,
+        // Die Buchung wurde angenommen und wird gebündelt geschrieben
+        ACCEPTED,
+        NOT_FOUND,
+        INSUFFICIENT_FUNDS,
+        // Der neue Betrag passt nicht in die Spalte amount (NUMERIC(19, 2))
+        AMOUNT_TOO_LARGE
+    }
+
+    private final CashCardRepository cashCardRepository;
+    private final CashCardCache cashCardCache;
+    private final CashCardBalanceAccumulator accumulator;
+    private final CashCardSummaries cashCardSummaries;
+    private final CashCardEventOutbox cashCardEventOutbox;
+    private final TransactionTemplate transactionTemplate;
+
+    CashCardBalances(CashCardRepository cashCardRepository,
+                     CashCardCache cashCardCache,
+                     CashCardBalanceAccumulator accumulator,
+                     CashCardSummaries cashCardSummaries,
+                     CashCardEventOutbox cashCardEventOutbox,
+                     PlatformTransactionManager transactionManager) {
+        this.cashCardRepository = cashCardRepository;
+        this.cashCardCache = cashCardCache;
+        this.accumulator = accumulator;
+        this.cashCardSummaries = cashCardSummaries;
+        this.cashCardEventOutbox = cashCardEventOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    Result credit(Long id, String owner, BigDecimal amount) {
+        if (accumulator.accumulates(id)) {
+            return accumulator.credit(id, owner, amount);
+        }
+        boolean updated = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (!cashCardRepository.credit(id, owner, amount)) {
+                return false;
+            }
+            cashCardSummaries.amountChanged(owner, id, amount);
+            cashCardEventOutbox.record(CashCardEvent.Type.UPDATED, List.of(id));
+            return true;
+        }));
+        cashCardCache.evict(id);
+        if (updated) {
+            return Result.APPLIED;
+        }
+        return cashCardRepository.existsByIdAndOwner(id, owner) ? Result.AMOUNT_TOO_LARGE : Result.NOT_FOUND;
+    }
+
+    Result debit(Long id, String owner, BigDecimal amount) {
+        // Gesammelte Aufbuchungen werden vorher geschrieben, damit sie für die Deckung zählen
+        accumulator.flush(id);
+        boolean updated = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            if (!cashCardRepository.debit(id, owner, amount)) {
+                return false;
+            }
+            cashCardSummaries.amountChanged(owner, id, amount.negate());
+            cashCardEventOutbox.record(CashCardEvent.Type.UPDATED, List.of(id));
+            return true;
+        }));
+        cashCardCache.evict(id);
+        if (updated) {
+            return Result.APPLIED;
+        }
+        return cashCardRepository.existsByIdAndOwner(id, owner) ? Result.INSUFFICIENT_FUNDS : Result.NOT_FOUND;
+    }
+}
@@ -0,0 +1,11 @@
+package example.cashcard;
+
+import java.util.List;
+
+// Ergebnis eines Massenimports: pro übergebener CashCard, in der Reihenfolge der
+// Anfrage, entweder die erzeugte ID oder eine Fehlermeldung.
+record CashCardBulkResult(int created, int failed, List<Item> items) {
+
+    record Item(int index, Long id, String error) {
+    }
+}
@@ -0,0 +1,185 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+// Der CashCardBulkWriter speichert viele CashCards auf einmal. Die CashCards werden
+// in Blöcken (chunk-size) per JDBC-Batch eingefügt, mit einer Transaktion pro Block.
+// Schlägt ein Block fehl, wird nur dieser Block zurückgerollt und seine Einträge
+// werden einzeln erneut geschrieben, sodass nur die fehlerhaften Einträge als
+// fehlgeschlagen gemeldet werden. Die Kennzahlen des Besitzers (CashCardSummaries)
+// werden in der Transaktion des Blocks einmal für den ganzen Block aktualisiert, ebenso
+// werden dort die Ereignisse für den Änderungs-Feed geschrieben (CashCardEventOutbox).
+@Component
+class CashCardBulkWriter {
+    private static final String INSERT_SQL = "INSERT INTO cash_card (AMOUNT, OWNER) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CashCardSummaries cashCardSummaries;
+    private final CashCardEventOutbox cashCardEventOutbox;
+    private final ObjectReader cashCardReader;
+    private final int chunkSize;
+
+    CashCardBulkWriter(JdbcTemplate jdbcTemplate,
+                       PlatformTransactionManager transactionManager,
+                       CashCardSummaries cashCardSummaries,
+                       CashCardEventOutbox cashCardEventOutbox,
+                       ObjectMapper objectMapper,
+                       @Value("${cashcard.bulk.chunk-size:500}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cashCardSummaries = cashCardSummaries;
+        this.cashCardEventOutbox = cashCardEventOutbox;
+        this.cashCardReader = objectMapper.readerFor(CashCard.class);
+        this.chunkSize = chunkSize;
+    }
+
+    // Speichert eine bereits gelesene Liste von CashCards (JSON-Array) für den Besitzer
+    CashCardBulkResult write(List<CashCard> cashCards, String owner) {
+        Batch batch = new Batch(owner);
+        for (CashCard cashCard : cashCards) {
+            batch.add(cashCard);
+        }
+        return batch.finish();
+    }
+
+    // Liest CashCards zeilenweise aus einem NDJSON-Stream und speichert sie blockweise,
+    // ohne den ganzen Stream im Speicher zu halten
+    CashCardBulkResult writeNdjson(InputStream body, String owner) throws IOException {
+        Batch batch = new Batch(owner);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                batch.add(cashCardReader.readValue(line));
+            } catch (JsonProcessingException e) {
+                batch.reject("invalid JSON");
+            }
+        }
+        return batch.finish();
+    }
+
+    private List<Long> insert(List<CashCard> cashCards, String owner) {
+        return transactionTemplate.execute(status -> {
+            List<Long> ids = insertBatch(cashCards);
+            cashCardSummaries.cardsAdded(owner, cashCards.stream().map(CashCard::amount).toList());
+            cashCardEventOutbox.record(CashCardEvent.Type.CREATED, ids);
+            return ids;
+        });
+    }
+
+    private List<Long> insertBatch(List<CashCard> cashCards) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL, new String[] {"ID"})) {
+                for (CashCard cashCard : cashCards) {
+                    statement.setObject(1, cashCard.amount());
+                    statement.setString(2, cashCard.owner());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                List<Long> ids = new ArrayList<>(cashCards.size());
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    while (generatedKeys.next()) {
+                        ids.add(generatedKeys.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    // Sammelt die Einträge einer Anfrage und schreibt sie blockweise.
+    // Alle CashCards gehören dem angemeldeten Besitzer, ein owner in der Anfrage wird ignoriert.
+    private class Batch {
+        private final String owner;
+        private final List<CashCardBulkResult.Item> items = new ArrayList<>();
+        private final List<CashCard> pending = new ArrayList<>(chunkSize);
+        private final List<Integer> pendingIndexes = new ArrayList<>(chunkSize);
+        private int created;
+        private int failed;
+
+        Batch(String owner) {
+            this.owner = owner;
+        }
+
+        void add(CashCard cashCard) {
+            if (cashCard == null || cashCard.amount() == null) {
+                reject("amount is required");
+                return;
+            }
+            pendingIndexes.add(items.size());
+            pending.add(new CashCard(null, cashCard.amount(), owner));
+            // Platzhalter, wird nach dem Schreiben des Blocks ersetzt
+            items.add(null);
+            if (pending.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void reject(String error) {
+            items.add(new CashCardBulkResult.Item(items.size(), null, error));
+            failed++;
+        }
+
+        CashCardBulkResult finish() {
+            flush();
+            return new CashCardBulkResult(created, failed, items);
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            try {
+                List<Long> ids = insert(pending, owner);
+                for (int i = 0; i < pendingIndexes.size(); i++) {
+                    int index = pendingIndexes.get(i);
+                    items.set(index, new CashCardBulkResult.Item(index, ids.get(i), null));
+                }
+                created += pending.size();
+            } catch (DataAccessException e) {
+                insertOneByOne();
+            }
+            pending.clear();
+            pendingIndexes.clear();
+        }
+
+        // Schreibt jeden Eintrag eines fehlgeschlagenen Blocks in einer eigenen Transaktion
+        private void insertOneByOne() {
+            for (int i = 0; i < pendingIndexes.size(); i++) {
+                int index = pendingIndexes.get(i);
+                try {
+                    Long id = insert(List.of(pending.get(i)), owner).get(0);
+                    items.set(index, new CashCardBulkResult.Item(index, id, null));
+                    created++;
+                } catch (DataAccessException e) {
+                    items.set(index, new CashCardBulkResult.Item(index, null, "could not be stored"));
+                    failed++;
+                }
+            }
+        }
+    }
+}
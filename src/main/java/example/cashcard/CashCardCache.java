@@ -0,0 +1,57 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+// Der CashCardCache ist ein begrenzter In-Memory-Cache für einzelne CashCards.
+// Einträge werden nach Größe und nach Lebensdauer (TTL) verdrängt. Da CashCard
+// ein unveränderlicher Record ist, wird bei einem Treffer direkt die gespeicherte
+// Instanz zurückgegeben, ohne Kopie und ohne neues Optional.
+@Component
+class CashCardCache {
+    private final Cache<Long, CashCard> cache;
+
+    CashCardCache(@Value("${cashcard.cache.maximum-size:10000}") long maximumSize,
+                  @Value("${cashcard.cache.time-to-live:5m}") Duration timeToLive) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    // Gibt die CashCard zurück oder null, wenn sie nicht im Cache liegt
+    CashCard get(Long id) {
+        return cache.getIfPresent(id);
+    }
+
+    // Gibt die CashCard aus dem Cache zurück oder lädt sie mit loader (Read-Through).
+    // Liefert loader null, wird nichts gespeichert. Das Laden geschieht atomar: ein
+    // gleichzeitiges evict wartet, bis es fertig ist, und entfernt danach auch eine
+    // CashCard, die noch vor der Änderung gelesen wurde.
+    CashCard get(Long id, Function<Long, CashCard> loader) {
+        return cache.get(id, loader);
+    }
+
+    // Entfernt eine CashCard aus dem Cache, z.B. nach einer Änderung oder Löschung.
+    // Muss nach dem Commit der Änderung aufgerufen werden, sonst kann ein gleichzeitiger
+    // Leser den alten Stand erneut in den Cache laden.
+    void evict(Long id) {
+        cache.invalidate(id);
+    }
+
+    // Zähler für Treffer, Fehlzugriffe und Verdrängungen
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    Cache<Long, CashCard> nativeCache() {
+        return cache;
+    }
+}
@@ -1,16 +1,26 @@
 package example.cashcard;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.security.Principal;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Supplier;
 
 //Die @RestController-Annotation kennzeichnet diese Klasse als Controller für REST-Anfragen
 //Die @RequestMapping-Annotation legt fest, dass alle Anfragen an diesen Controller mit "/cashcards" beginnen
@@ -20,18 +30,80 @@ public class CashCardController {
     // Die CashCardRepository-Instanz wird hier als Abhängigkeit injiziert
     private final CashCardRepository cashCardRepository;
 
-    private CashCardController(CashCardRepository cashCardRepository) {
+    // Obergrenze für die Seitengröße der Keyset-Paginierung
+    private static final int MAX_SLICE_SIZE = 1000;
+
+    // Header, mit dem ein Client das Anlegen einer CashCard gefahrlos wiederholen kann
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    // Cache für einzelne CashCards, siehe findById
+    private final CashCardCache cashCardCache;
+
+    // Schreibt viele CashCards per JDBC-Batch, siehe createCashCards
+    private final CashCardBulkWriter cashCardBulkWriter;
+
+    // Streamt alle CashCards als NDJSON, siehe exportCashCards
+    private final CashCardExporter cashCardExporter;
+
+    // Bucht Beträge atomar auf und ab, siehe credit und debit
+    private final CashCardBalances cashCardBalances;
+
+    // Summe, Anzahl, Minimum und Maximum der Beträge, siehe summary
+    private final CashCardSummaries cashCardSummaries;
+
+    // Erkennt wiederholte Anfragen mit demselben Idempotency-Key, siehe createCashCard
+    private final CashCardIdempotencyStore cashCardIdempotencyStore;
+
+    // Nimmt neue CashCards in eine Warteschlange auf; null, wenn der Write-Behind-Modus aus ist
+    private final CashCardWriteBehind cashCardWriteBehind;
+
+    // Verteilt Änderungen an CashCards per Server-Sent Events, siehe events
+    private final CashCardEventFeed cashCardEventFeed;
+
+    private CashCardController(CashCardRepository cashCardRepository, CashCardCache cashCardCache,
+                               CashCardBulkWriter cashCardBulkWriter, CashCardExporter cashCardExporter,
+                               CashCardBalances cashCardBalances, CashCardSummaries cashCardSummaries,
+                               CashCardIdempotencyStore cashCardIdempotencyStore,
+                               ObjectProvider<CashCardWriteBehind> cashCardWriteBehind,
+                               CashCardEventFeed cashCardEventFeed) {
         this.cashCardRepository = cashCardRepository;
+        this.cashCardCache = cashCardCache;
+        this.cashCardBulkWriter = cashCardBulkWriter;
+        this.cashCardExporter = cashCardExporter;
+        this.cashCardBalances = cashCardBalances;
+        this.cashCardSummaries = cashCardSummaries;
+        this.cashCardIdempotencyStore = cashCardIdempotencyStore;
+        this.cashCardWriteBehind = cashCardWriteBehind.getIfAvailable();
+        this.cashCardEventFeed = cashCardEventFeed;
     }
 
     // Die @GetMapping-Annotation definiert einen Endpunkt für GET-Anfragen mit
     // einer Pfadvariable (requestedId).
-    // Diese Methode sucht eine CashCard anhand ihrer ID im Repository
+    // Diese Methode sucht eine CashCard anhand ihrer ID zuerst im Cache und
+    // danach im Repository (Read-Through). Änderungen entfernen die CashCard erst nach
+    // ihrem Commit aus dem Cache, siehe CashCardCache.get. Gehört die CashCard nicht dem
+    // angemeldeten Benutzer, wird wie bei einer unbekannten ID 404 geliefert.
+    // Die Antwort trägt die Version der CashCard als schwachen ETag. Stimmt sie mit
+    // If-None-Match überein, wird 304-NOT_MODIFIED geliefert; fehlt die CashCard im Cache,
+    // wird dafür nur die Version gelesen und nicht die ganze Zeile.
     @GetMapping("/{requestedId}")
-    private ResponseEntity<CashCard> findById(@PathVariable Long requestedId) {
-        Optional<CashCard> cashCardOptional = cashCardRepository.findById(requestedId);
-        if (cashCardOptional.isPresent()) {
-            return ResponseEntity.ok(cashCardOptional.get());
+    private ResponseEntity<CashCard> findById(@PathVariable Long requestedId, Principal principal,
+                                              @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        CashCard cashCard = cashCardCache.get(requestedId);
+        if (cashCard == null) {
+            if (ifNoneMatch != null) {
+                String eTag = eTag(cashCardRepository.findVersionByIdAndOwner(requestedId, principal.getName()));
+                if (eTag != null && matches(ifNoneMatch, eTag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+                }
+            }
+            cashCard = cashCardCache.get(requestedId,
+                    id -> cashCardRepository.findByIdAndOwner(id, principal.getName()));
+        }
+        if (cashCard != null && cashCard.owner().equals(principal.getName())) {
+            // Bei passendem If-None-Match antwortet Spring MVC selbst mit 304, ohne die CashCard zu serialisieren
+            return ResponseEntity.ok().eTag(eTag(cashCard.version())).varyBy(HttpHeaders.ACCEPT).body(cashCard);
         } else {
             return ResponseEntity.notFound().build();
         }
@@ -40,27 +112,210 @@ public class CashCardController {
     // Die @PostMapping-Annotation definiert einen Endpunkt für POST-Anfragen.
     // Diese Methode erstellt eine neue CashCard im Repository und gibt eine Antwort
     // mit dem HTTP-Status 201-CREATED und einem Location-Header zurück, der auf die
-    // neu erstellte Ressource verweist.
+    // neu erstellte Ressource verweist. Besitzer ist immer der angemeldete Benutzer.
+    // Die Kennzahlen des Besitzers werden in der Transaktion von save aktualisiert.
+    // Mit einem Idempotency-Key wird die CashCard nur beim ersten Mal angelegt; jede
+    // Wiederholung mit demselben Schlüssel erhält wieder 201-CREATED mit derselben Location.
+    // Im Write-Behind-Modus wird die CashCard nur angenommen und später geschrieben; die
+    // Antwort ist dann 202-ACCEPTED mit der künftigen Location, bei voller Warteschlange
+    // 503-SERVICE_UNAVAILABLE mit Retry-After. Ein Betrag, den die Datenbank nicht speichern
+    // kann, wird schon hier mit 400-BAD_REQUEST abgelehnt.
     @PostMapping
-    private ResponseEntity<Void> createCashCard(@RequestBody CashCard newCashCardRequest, UriComponentsBuilder ucb) {
-        CashCard savedCashCard = cashCardRepository.save(newCashCardRequest);
+    private ResponseEntity<Void> createCashCard(@RequestBody CashCard newCashCardRequest, UriComponentsBuilder ucb,
+                                                Principal principal,
+                                                @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return ResponseEntity.badRequest().build();
+        }
+        CashCard cashCardWithOwner = new CashCard(null, newCashCardRequest.amount(), principal.getName());
+        Supplier<Long> create;
+        if (cashCardWriteBehind == null) {
+            create = () -> cashCardRepository.save(cashCardWithOwner).id();
+        } else if (!CashCardWriteBehind.isStorable(cashCardWithOwner.amount())) {
+            return ResponseEntity.badRequest().build();
+        } else {
+            create = () -> cashCardWriteBehind.accept(cashCardWithOwner.owner(), cashCardWithOwner.amount());
+        }
+        Long id;
+        try {
+            id = idempotencyKey == null
+                    ? create.get()
+                    : cashCardIdempotencyStore.createOnce(principal.getName(), idempotencyKey, create);
+        } catch (CashCardWriteBehind.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        // Der Cache wird beim ersten Lesen gefüllt, damit der Betrag so geliefert wird,
+        // wie ihn die Datenbank speichert (zwei Nachkommastellen)
+        cashCardCache.evict(id);
         URI locationOfNewCashCard = ucb
                 .path("/cashcards/{id}")
-                .buildAndExpand(savedCashCard.id())
+                .buildAndExpand(id)
                 .toUri();
+        if (cashCardWriteBehind != null) {
+            return ResponseEntity.accepted().location(locationOfNewCashCard).build();
+        }
         return ResponseEntity.created(locationOfNewCashCard).build();
     }
 
+    // Bucht einen Betrag auf die CashCard auf. Antwortet mit 204-NO_CONTENT, wenn
+    // die Buchung geschrieben wurde, und mit 202-ACCEPTED, wenn sie für eine häufig
+    // genutzte CashCard gesammelt und gebündelt geschrieben wird. Ein Guthaben, das die
+    // Datenbank nicht speichern kann, wird mit 400-BAD_REQUEST abgelehnt.
+    @PostMapping("/{requestedId}/credit")
+    private ResponseEntity<Void> credit(@PathVariable Long requestedId, @RequestBody CashCardAdjustment adjustment,
+                                        Principal principal) {
+        if (!isValid(adjustment)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return toResponse(cashCardBalances.credit(requestedId, principal.getName(), adjustment.amount()));
+    }
+
+    // Bucht einen Betrag von der CashCard ab. Reicht der Betrag nicht, wird die
+    // Buchung mit 409-CONFLICT abgelehnt.
+    @PostMapping("/{requestedId}/debit")
+    private ResponseEntity<Void> debit(@PathVariable Long requestedId, @RequestBody CashCardAdjustment adjustment,
+                                       Principal principal) {
+        if (!isValid(adjustment)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return toResponse(cashCardBalances.debit(requestedId, principal.getName(), adjustment.amount()));
+    }
+
+    // Ein Buchungsbetrag muss positiv sein und darf höchstens zwei Nachkommastellen haben
+    private static boolean isValid(CashCardAdjustment adjustment) {
+        return adjustment.amount() != null
+                && adjustment.amount().signum() > 0
+                && adjustment.amount().stripTrailingZeros().scale() <= 2;
+    }
+
+    private static ResponseEntity<Void> toResponse(CashCardBalances.Result result) {
+        return switch (result) {
+            case APPLIED -> ResponseEntity.noContent().build();
+            case ACCEPTED -> ResponseEntity.accepted().build();
+            case NOT_FOUND -> ResponseEntity.notFound().build();
+            case INSUFFICIENT_FUNDS -> ResponseEntity.status(HttpStatus.CONFLICT).build();
+            case AMOUNT_TOO_LARGE -> ResponseEntity.badRequest().build();
+        };
+    }
+
+    // Kennzahlen der CashCards des angemeldeten Benutzers. Sie werden bei jeder
+    // Änderung mitgeführt, daher wird nur eine Zeile gelesen statt aller CashCards.
+    @GetMapping("/summary")
+    private ResponseEntity<CashCardSummary> summary(Principal principal) {
+        return ResponseEntity.ok(cashCardSummaries.find(principal.getName()));
+    }
+
+    // Kennzahlen über alle Besitzer, nur für Administratoren (siehe SecurityConfig)
+    @GetMapping("/summary/all")
+    private ResponseEntity<CashCardSummary> summaryOfAll() {
+        return ResponseEntity.ok(cashCardSummaries.findOverall());
+    }
+
+    // Massenimport: nimmt ein JSON-Array von CashCards entgegen und speichert sie
+    // blockweise per JDBC-Batch. Die Antwort enthält pro Eintrag die erzeugte ID
+    // oder einen Fehler, in der Reihenfolge der Anfrage.
+    @PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    private ResponseEntity<CashCardBulkResult> createCashCards(@RequestBody List<CashCard> newCashCardRequests,
+                                                               Principal principal) {
+        return ResponseEntity.ok(cashCardBulkWriter.write(newCashCardRequests, principal.getName()));
+    }
+
+    // Massenimport als NDJSON-Stream (eine CashCard pro Zeile). Der Stream wird
+    // zeilenweise gelesen, sodass auch sehr große Importe wenig Speicher benötigen.
+    @PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    private ResponseEntity<CashCardBulkResult> createCashCardsFromStream(InputStream body, Principal principal)
+            throws IOException {
+        return ResponseEntity.ok(cashCardBulkWriter.writeNdjson(body, principal.getName()));
+    }
+
+    // Änderungs-Feed als Server-Sent Events: jedes Ereignis enthält den neuen Stand einer
+    // CashCard des angemeldeten Benutzers und seine Sequenznummer als Event-ID. Mit since
+    // oder dem Header Last-Event-ID werden zuerst die verpassten Ereignisse nachgeliefert.
+    // Die Antwort wird asynchron mit nicht blockierendem I/O geschrieben, siehe CashCardEventFeed.
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    private void events(@RequestParam(required = false) Long since,
+                        @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId,
+                        Principal principal, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        cashCardEventFeed.subscribe(principal.getName(), lastEventId != null ? lastEventId : since, request, response);
+    }
+
+    // Export aller CashCards des angemeldeten Benutzers als NDJSON. Die Zeilen werden
+    // direkt aus der Datenbank in die Antwort gestreamt, ohne eine Liste im Speicher aufzubauen.
+    @GetMapping(path = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    private ResponseEntity<StreamingResponseBody> exportCashCards(Principal principal) {
+        String owner = principal.getName();
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> cashCardExporter.export(owner, outputStream));
+    }
+
     // Diese Methode gibt eine Seite von CashCards zurück, basierend auf den
-    // angegebenen Seitennummer und der Seitengröße.
+    // angegebenen Seitennummer und der Seitengröße. Es werden nur die CashCards
+    // des angemeldeten Benutzers geliefert. Der ETag ist die Version aus cash_card_summary,
+    // die jede Änderung an den CashCards des Benutzers erhöht. Eine unveränderte Liste wird
+    // so mit einem Zugriff per Primärschlüssel als 304-NOT_MODIFIED beantwortet, ohne die
+    // Seite zu lesen.
     @GetMapping
-    private ResponseEntity<List<CashCard>> findAll(Pageable pageable) {
-        Page<CashCard> page = cashCardRepository.findAll(
+    private ResponseEntity<List<CashCard>> findAll(Pageable pageable, Principal principal,
+                                                   @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String eTag = eTag(cashCardRepository.findListVersionByOwner(principal.getName()));
+        if (ifNoneMatch != null && matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        Page<CashCard> page = cashCardRepository.findByOwner(
+                principal.getName(),
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
                         pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))));
 
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(page.getContent());
+    }
+
+    // Die ETags sind schwach (W/), da JSON und CBOR derselben Version denselben ETag
+    // tragen; ein starker ETag müsste sich je Darstellung unterscheiden. Vary: Accept
+    // sorgt dafür, dass Caches die Darstellungen trotzdem getrennt speichern.
+    private static String eTag(Object version) {
+        return version == null ? null : "W/\"" + version + "\"";
+    }
+
+    // Prüft, ob einer der ETags aus If-None-Match passt. Verglichen wird schwach, also nur
+    // der Teil in Anführungszeichen; so kann "1" nicht fälschlich in "12" gefunden werden.
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(eTag.substring(2));
+    }
+
+    // Keyset-Paginierung: liefert die Seite nach dem übergebenen Cursor, sortiert
+    // nach (amount, id). Im Gegensatz zu findAll wird weder OFFSET noch COUNT(*)
+    // verwendet, sodass tiefe Seiten genauso schnell sind wie die erste.
+    // Es werden nur die CashCards des angemeldeten Benutzers geliefert.
+    @GetMapping("/seek")
+    private ResponseEntity<CashCardSlice> findAllAfter(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            Principal principal) {
+        if (size < 1 || size > MAX_SLICE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Es wird ein Eintrag mehr gelesen, um zu erkennen, ob es eine weitere Seite gibt
+        List<CashCard> cashCards;
+        if (cursor == null) {
+            cashCards = cashCardRepository.findFirstByAmountAndId(principal.getName(), size + 1);
+        } else {
+            CashCardCursor after = CashCardCursor.decode(cursor);
+            if (after == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            cashCards = cashCardRepository.findAfterAmountAndId(
+                    principal.getName(), after.amount(), after.id(), size + 1);
+        }
+
+        if (cashCards.size() <= size) {
+            return ResponseEntity.ok(new CashCardSlice(cashCards, null));
+        }
+        List<CashCard> content = cashCards.subList(0, size);
+        String next = CashCardCursor.of(content.get(size - 1)).encode();
+        return ResponseEntity.ok(new CashCardSlice(content, next));
     }
 }
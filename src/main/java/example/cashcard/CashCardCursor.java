@@ -0,0 +1,36 @@
+package example.cashcard;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Der CashCardCursor ist das Fortsetzungstoken der Keyset-Paginierung.
+// Er enthält den Sortierschlüssel (amount, id) des letzten gelieferten Eintrags
+// und wird für den Client als undurchsichtiger Base64-String kodiert.
+record CashCardCursor(BigDecimal amount, Long id) {
+
+    static CashCardCursor of(CashCard cashCard) {
+        return new CashCardCursor(cashCard.amount(), cashCard.id());
+    }
+
+    String encode() {
+        String key = amount.toPlainString() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Gibt null zurück, wenn das Token nicht gelesen werden kann
+    static CashCardCursor decode(String token) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = key.lastIndexOf(':');
+            if (separator < 0) {
+                return null;
+            }
+            return new CashCardCursor(
+                    new BigDecimal(key.substring(0, separator)),
+                    Long.valueOf(key.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
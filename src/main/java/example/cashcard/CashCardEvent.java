@@ -0,0 +1,13 @@
+package example.cashcard;
+
+import java.math.BigDecimal;
+
+// Ein Ereignis des Änderungs-Feeds: der Stand einer CashCard nach einer Änderung.
+// seq ist fortlaufend über alle Ereignisse und dient als Last-Event-ID zum Fortsetzen.
+record CashCardEvent(long seq, Type type, Long id, BigDecimal amount, String owner, long version) {
+
+    enum Type {
+        CREATED,
+        UPDATED
+    }
+}
@@ -0,0 +1,458 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Der CashCardEventFeed verteilt die Ereignisse aus der Outbox-Tabelle cash_card_event
+// per Server-Sent Events an alle Abonnenten. Ein einziger Poller liest neue Ereignisse
+// in der Reihenfolge ihrer Sequenznummer und reicht sie an die Abonnenten ihres Besitzers
+// weiter, sodass die Datenbank unabhängig von der Anzahl der Abonnenten nur eine Abfrage
+// pro poll-interval sieht.
+// Eine fehlende Sequenznummer gehört meist zu einer Transaktion, die noch nicht
+// festgeschrieben ist, oder zu einer zurückgerollten. Der Poller wartet darauf höchstens
+// gap-timeout ab dem Zeitpunkt, an dem er sie zum ersten Mal als fehlend gesehen hat, und
+// verteilt dann die folgenden Ereignisse. Gleichzeitig sichtbare Lücken werden also
+// gemeinsam abgewartet und jede nur einmal. Die übersprungene Sequenznummer merkt er sich für late-window;
+// erscheint sie in dieser Zeit doch noch, wird das Ereignis nachträglich an die verbundenen
+// Abonnenten geschickt, ohne Event-ID, damit Last-Event-ID nicht zurückspringt. Wer erst
+// danach mit Last-Event-ID fortsetzt, erhält es nicht mehr.
+// Gesendet wird mit nicht blockierendem Servlet-I/O: Jeder Abonnent hat einen begrenzten
+// Puffer (buffer-size), der geschrieben wird, sobald der Client Daten abnimmt. Ein langsamer
+// Empfänger belegt also keinen Thread. Läuft der Puffer voll, wird die Verbindung beendet;
+// der Client kann mit Last-Event-ID fortsetzen. Das Nachlesen aus der Tabelle läuft auf
+// einem eigenen Executor (catch-up-threads) und nur so weit, wie im Puffer Platz ist.
+// Alle heartbeat-interval erhält jeder Abonnent ohne ausstehende Daten einen SSE-Kommentar,
+// damit Proxys eine ruhige Verbindung nicht als untätig beenden.
+@Component
+class CashCardEventFeed {
+    private static final Logger log = LoggerFactory.getLogger(CashCardEventFeed.class);
+    private static final int CATCH_UP_BATCH_SIZE = 500;
+    // Höchstens so viele übersprungene Sequenznummern werden nachverfolgt
+    private static final int MAX_SKIPPED = 1000;
+    // Ein SSE-Kommentar, den Clients ignorieren
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final String SELECT_EVENTS = "SELECT seq, type, cash_card_id, amount, owner, version FROM cash_card_event";
+    private static final RowMapper<CashCardEvent> EVENT_ROW_MAPPER = (rs, rowNum) -> new CashCardEvent(
+            rs.getLong(1), CashCardEvent.Type.valueOf(rs.getString(2)), rs.getLong(3),
+            rs.getBigDecimal(4), rs.getString(5), rs.getLong(6));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectWriter eventWriter;
+    private final ThreadPoolTaskExecutor catchUpExecutor;
+    private final int bufferSize;
+    private final int pollBatchSize;
+    private final long gapTimeoutNanos;
+    private final long lateWindowNanos;
+    private final Duration subscriptionTimeout;
+    private final Duration retention;
+
+    // Schützt den Übergang eines Abonnenten vom Nachlesen zum Live-Betrieb, siehe catchUp
+    private final Object publishLock = new Object();
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    // Abonnenten, die noch nachlesen; sie erhalten nur nachträglich erschienene Ereignisse
+    private final Map<String, Set<Subscriber>> catchingUp = new ConcurrentHashMap<>();
+    // Übersprungene Sequenznummern und seit wann (System.nanoTime); geändert nur vom
+    // Poller unter publishLock
+    private final Map<Long, Long> skipped = new LinkedHashMap<>();
+    // Höchste bereits an die Abonnenten verteilte Sequenznummer
+    private volatile long publishedSeq;
+    // Höchste gelesene Sequenznummer und wann sie zum ersten Mal gelesen wurde (System.nanoTime),
+    // aufsteigend. Eine fehlende Sequenznummer ist seit dem ersten Eintrag mit größerem Schlüssel
+    // bekannt. Nur vom Poller benutzt; Einträge bis publishedSeq werden entfernt.
+    private final NavigableMap<Long, Long> seenUpTo = new TreeMap<>();
+
+    CashCardEventFeed(JdbcTemplate jdbcTemplate,
+                      ObjectMapper objectMapper,
+                      @Value("${cashcard.events.catch-up-threads:4}") int catchUpThreads,
+                      @Value("${cashcard.events.buffer-size:1000}") int bufferSize,
+                      @Value("${cashcard.events.poll-batch-size:1000}") int pollBatchSize,
+                      @Value("${cashcard.events.gap-timeout:1s}") Duration gapTimeout,
+                      @Value("${cashcard.events.late-window:1m}") Duration lateWindow,
+                      @Value("${cashcard.events.subscription-timeout:30m}") Duration subscriptionTimeout,
+                      @Value("${cashcard.events.retention:7d}") Duration retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventWriter = objectMapper.writerFor(CashCardEvent.class);
+        this.bufferSize = bufferSize;
+        this.pollBatchSize = pollBatchSize;
+        this.gapTimeoutNanos = gapTimeout.toNanos();
+        this.lateWindowNanos = lateWindow.toNanos();
+        this.subscriptionTimeout = subscriptionTimeout;
+        this.retention = retention;
+        this.catchUpExecutor = new ThreadPoolTaskExecutor();
+        catchUpExecutor.setCorePoolSize(catchUpThreads);
+        catchUpExecutor.setMaxPoolSize(catchUpThreads);
+        catchUpExecutor.setThreadNamePrefix("cashcard-events-");
+        catchUpExecutor.setDaemon(true);
+        catchUpExecutor.initialize();
+        // Live-Abonnenten erhalten nur Ereignisse ab dem Start; ältere gibt es über since
+        this.publishedSeq = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) FROM cash_card_event", Long.class);
+    }
+
+    @PreDestroy
+    void stop() {
+        catchUpExecutor.shutdown();
+    }
+
+    // Meldet einen Abonnenten für die Ereignisse des Besitzers an und übernimmt die Antwort
+    // asynchron. Mit since werden zuerst alle Ereignisse nach dieser Sequenznummer
+    // nachgeliefert, sonst nur neue.
+    void subscribe(String owner, Long since, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(subscriptionTimeout.toMillis());
+        Subscriber subscriber = new Subscriber(owner, asyncContext, response.getOutputStream(),
+                since == null ? publishedSeq : since);
+        asyncContext.addListener(subscriber);
+        synchronized (publishLock) {
+            catchingUp.computeIfAbsent(owner, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+        subscriber.out.setWriteListener(subscriber);
+        catchUpExecutor.execute(() -> catchUp(subscriber));
+    }
+
+    // Anzahl der angemeldeten Abonnenten, siehe CashCardMetricsConfig
+    int subscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    // Liest neue Ereignisse und verteilt sie lückenlos in der Reihenfolge ihrer Sequenznummer
+    @Scheduled(fixedDelayString = "${cashcard.events.poll-interval:50}")
+    void poll() {
+        publishLateEvents();
+        List<CashCardEvent> events = jdbcTemplate.query(SELECT_EVENTS + " WHERE seq > ? ORDER BY seq LIMIT ?",
+                EVENT_ROW_MAPPER, publishedSeq, pollBatchSize);
+        if (events.isEmpty()) {
+            return;
+        }
+        long highest = events.get(events.size() - 1).seq();
+        if (seenUpTo.isEmpty() || highest > seenUpTo.lastKey()) {
+            seenUpTo.put(highest, System.nanoTime());
+        }
+        try {
+            for (CashCardEvent event : events) {
+                long now = System.nanoTime();
+                if (event.seq() != publishedSeq + 1) {
+                    // Die Lücke vor event ist vollständig bekannt, seit event zum ersten Mal gelesen wurde
+                    long gapSeenAt = seenUpTo.ceilingEntry(event.seq()).getValue();
+                    if (now - gapSeenAt < gapTimeoutNanos) {
+                        return;
+                    }
+                    log.debug("Skipping events {} to {}", publishedSeq + 1, event.seq() - 1);
+                }
+                publish(event, now);
+            }
+        } finally {
+            seenUpTo.headMap(publishedSeq, true).clear();
+        }
+    }
+
+    // Hält ruhige Verbindungen offen, siehe Subscriber.heartbeat
+    @Scheduled(fixedDelayString = "${cashcard.events.heartbeat-interval:PT15S}")
+    void heartbeat() {
+        for (Map<String, Set<Subscriber>> owners : List.of(subscribers, catchingUp)) {
+            for (Set<Subscriber> owned : owners.values()) {
+                for (Subscriber subscriber : owned) {
+                    subscriber.heartbeat();
+                }
+            }
+        }
+    }
+
+    // Entfernt Ereignisse, die älter als retention sind und bereits verteilt wurden.
+    // fixedDelayString versteht nur Millisekunden oder ISO-8601 (PT1M), nicht 1m.
+    @Scheduled(fixedDelayString = "${cashcard.events.cleanup-interval:PT1M}")
+    void deleteExpired() {
+        jdbcTemplate.update("DELETE FROM cash_card_event WHERE created_at < ? AND seq <= ?",
+                Timestamp.from(Instant.now().minus(retention)), publishedSeq);
+    }
+
+    private void publish(CashCardEvent event, long now) {
+        synchronized (publishLock) {
+            for (long seq = publishedSeq + 1; seq < event.seq() && skipped.size() < MAX_SKIPPED; seq++) {
+                skipped.put(seq, now);
+            }
+            Set<Subscriber> owned = subscribers.getOrDefault(event.owner(), Set.of());
+            if (!owned.isEmpty()) {
+                // Einmal pro Ereignis serialisiert, nicht pro Abonnent
+                byte[] frame = frame(event, true);
+                for (Subscriber subscriber : owned) {
+                    subscriber.offer(frame);
+                }
+            }
+            publishedSeq = event.seq();
+        }
+    }
+
+    // Liefert Ereignisse nach, deren Sequenznummer übersprungen wurde, weil ihre
+    // Transaktion länger als gap-timeout gedauert hat
+    private void publishLateEvents() {
+        if (skipped.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (publishLock) {
+            skipped.values().removeIf(skippedAt -> now - skippedAt > lateWindowNanos);
+        }
+        if (skipped.isEmpty()) {
+            return;
+        }
+        List<Long> seqs = new ArrayList<>(skipped.keySet());
+        List<CashCardEvent> events = jdbcTemplate.query(
+                SELECT_EVENTS + " WHERE seq IN (" + String.join(", ", Collections.nCopies(seqs.size(), "?")) + ") ORDER BY seq",
+                EVENT_ROW_MAPPER, seqs.toArray());
+        for (CashCardEvent event : events) {
+            log.debug("Delivering late event {}", event.seq());
+            byte[] frame = frame(event, false);
+            synchronized (publishLock) {
+                skipped.remove(event.seq());
+                for (Subscriber subscriber : subscribers.getOrDefault(event.owner(), Set.of())) {
+                    subscriber.offer(frame);
+                }
+                for (Subscriber subscriber : catchingUp.getOrDefault(event.owner(), Set.of())) {
+                    subscriber.lateReceived.add(event.seq());
+                    subscriber.offer(frame);
+                }
+            }
+        }
+    }
+
+    // Liefert die Ereignisse ab der Position des Abonnenten aus der Tabelle nach und meldet
+    // ihn danach für neue Ereignisse an. Die Anmeldung geschieht unter publishLock und nur,
+    // wenn seit der letzten Abfrage nichts verteilt wurde; so fehlt kein Ereignis und keines
+    // kommt doppelt. Übersprungene Ereignisse liefert nur der Poller (publishLateEvents).
+    // Ist der Puffer voll, pausiert das Nachlesen, bis der Client ihn geleert hat.
+    private void catchUp(Subscriber subscriber) {
+        try {
+            while (!subscriber.closed) {
+                int limit = Math.min(CATCH_UP_BATCH_SIZE, subscriber.room());
+                if (limit == 0) {
+                    if (subscriber.pauseCatchUp()) {
+                        return;
+                    }
+                    continue;
+                }
+                long published = publishedSeq;
+                List<CashCardEvent> events = jdbcTemplate.query(
+                        SELECT_EVENTS + " WHERE owner = ? AND seq > ? AND seq <= ? ORDER BY seq LIMIT ?",
+                        EVENT_ROW_MAPPER, subscriber.owner, subscriber.position, published, limit);
+                synchronized (publishLock) {
+                    for (CashCardEvent event : events) {
+                        if (!skipped.containsKey(event.seq()) && !subscriber.lateReceived.contains(event.seq())) {
+                            subscriber.offer(frame(event, true));
+                        }
+                        subscriber.position = event.seq();
+                    }
+                    if (events.size() < limit && publishedSeq == published) {
+                        catchingUp.getOrDefault(subscriber.owner, Set.of()).remove(subscriber);
+                        Set<Subscriber> owned = subscribers.computeIfAbsent(subscriber.owner,
+                                owner -> ConcurrentHashMap.newKeySet());
+                        owned.add(subscriber);
+                        // close kann gleichzeitig laufen und den Abonnenten noch nicht gefunden haben
+                        if (subscriber.closed) {
+                            owned.remove(subscriber);
+                        }
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not catch up events for {}", subscriber.owner, e);
+            subscriber.close();
+        }
+    }
+
+    // Ein Ereignis im Format von Server-Sent Events; ohne id bleibt die Last-Event-ID des Clients
+    private byte[] frame(CashCardEvent event, boolean withId) {
+        StringBuilder frame = new StringBuilder(160);
+        if (withId) {
+            frame.append("id:").append(event.seq()).append('\n');
+        }
+        try {
+            frame.append("event:").append(event.type().name()).append('\n')
+                    .append("data:").append(eventWriter.writeValueAsString(event)).append("\n\n");
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize event " + event.seq(), e);
+        }
+        return frame.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Schreibt nur, solange isReady gilt; sonst ruft der Container onWritePossible auf,
+    // sobald der Client wieder Daten abnimmt. Alle Zugriffe auf den Puffer sind synchronisiert;
+    // wer publishLock braucht, nimmt ihn vor der Sperre des Abonnenten.
+    private class Subscriber implements WriteListener, AsyncListener {
+        private final String owner;
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final Queue<byte[]> buffer = new ArrayDeque<>();
+        // Nachträglich gelieferte Ereignisse, die das Nachlesen überspringen muss; unter publishLock
+        private final Set<Long> lateReceived = new HashSet<>();
+        private volatile boolean closed;
+        // Bis zum ersten onWritePossible und nachdem isReady false war, darf nicht geschrieben werden
+        private boolean awaitingWritePossible = true;
+        // Die Antwort wird beim ersten onWritePossible gesendet, damit der Client verbunden ist
+        private boolean unflushed = true;
+        private boolean catchUpPaused;
+        // Sequenznummer des zuletzt nachgelesenen Ereignisses; nur vom Nachlesen benutzt
+        private volatile long position;
+
+        Subscriber(String owner, AsyncContext asyncContext, ServletOutputStream out, long position) {
+            this.owner = owner;
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.position = position;
+        }
+
+        // Wird vom Poller und vom Nachlesen aufgerufen und blockiert nie
+        synchronized void offer(byte[] frame) {
+            if (closed) {
+                return;
+            }
+            if (buffer.size() >= bufferSize) {
+                // Zu langsam: Der Client setzt mit Last-Event-ID fort
+                close();
+                return;
+            }
+            buffer.add(frame);
+            if (!awaitingWritePossible) {
+                write();
+            }
+        }
+
+        // Nur bei leerem Puffer: Stehen Daten aus, ist die Verbindung nicht untätig, und ein
+        // Abonnent, der nichts abnimmt, soll nicht wegen eines Kommentars getrennt werden
+        synchronized void heartbeat() {
+            if (closed || !buffer.isEmpty()) {
+                return;
+            }
+            buffer.add(HEARTBEAT);
+            if (!awaitingWritePossible) {
+                write();
+            }
+        }
+
+        synchronized int room() {
+            return bufferSize - buffer.size();
+        }
+
+        // Pausiert das Nachlesen, bis der Puffer leer ist; false, wenn er es schon ist
+        synchronized boolean pauseCatchUp() {
+            if (buffer.isEmpty()) {
+                return false;
+            }
+            catchUpPaused = true;
+            return true;
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            awaitingWritePossible = false;
+            write();
+        }
+
+        private void write() {
+            try {
+                while (!closed) {
+                    if (!out.isReady()) {
+                        awaitingWritePossible = true;
+                        return;
+                    }
+                    byte[] frame = buffer.poll();
+                    if (frame != null) {
+                        out.write(frame);
+                        unflushed = true;
+                    } else if (unflushed) {
+                        unflushed = false;
+                        out.flush();
+                    } else {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (catchUpPaused && !closed) {
+                catchUpPaused = false;
+                catchUpExecutor.execute(() -> catchUp(this));
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            subscribers.getOrDefault(owner, Set.of()).remove(this);
+            catchingUp.getOrDefault(owner, Set.of()).remove(this);
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // Die Anfrage ist bereits abgeschlossen
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
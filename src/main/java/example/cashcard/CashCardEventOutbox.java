@@ -0,0 +1,49 @@
+package example.cashcard;
+
+import org.springframework.data.relational.core.mapping.event.AfterSaveCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// CashCardEventOutbox schreibt für jede Änderung an cash_card ein Ereignis in die Tabelle
+// cash_card_event. Wie bei CashCardSummaries müssen die Methoden in der Transaktion der
+// Änderung aufgerufen werden; ein Ereignis gibt es also genau dann, wenn die Änderung
+// festgeschrieben wurde. Der Stand wird direkt aus cash_card übernommen, sodass auch
+// relative Änderungen (amount = amount + delta) den tatsächlichen neuen Betrag enthalten.
+@Component
+class CashCardEventOutbox implements AfterSaveCallback<CashCard> {
+    private static final String INSERT_SQL = """
+            INSERT INTO cash_card_event (type, cash_card_id, amount, owner, version)
+            SELECT ?, id, amount, owner, version FROM cash_card WHERE id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    CashCardEventOutbox(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Wird von Spring Data JDBC innerhalb der Transaktion von CashCardRepository.save
+    // aufgerufen. Wie bei CashCardSummaries werden CashCards nur neu gespeichert; Beträge
+    // ändern sich über CashCardBalances, das UPDATED selbst schreibt.
+    @Override
+    public CashCard onAfterSave(CashCard cashCard) {
+        record(CashCardEvent.Type.CREATED, List.of(cashCard.id()));
+        return cashCard;
+    }
+
+    // Schreibt ein Ereignis pro CashCard mit einem einzigen JDBC-Batch
+    void record(CashCardEvent.Type type, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            rows.add(new Object[] {type.name(), id});
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+    }
+}
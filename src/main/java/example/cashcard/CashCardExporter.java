@@ -0,0 +1,124 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Der CashCardExporter schreibt alle CashCards als NDJSON (eine CashCard pro Zeile)
+// direkt aus einem vorwärtsgerichteten JDBC-Cursor in den Ausgabestrom.
+// Es wird nie mehr als eine Zeile gleichzeitig gehalten, sodass der Speicherbedarf
+// unabhängig von der Größe der Tabelle ist. Da das Schreiben blockiert, wenn der
+// Client langsam liest, wird auch das Lesen aus der Datenbank entsprechend gebremst.
+// Die Reihenfolge (amount, id) folgt dem Index cash_card_owner_amount_id, damit die
+// Datenbank die Zeilen nicht erst sortieren und dafür vollständig lesen muss.
+@Component
+class CashCardExporter {
+    private static final String EXPORT_SQL = "SELECT ID, AMOUNT, OWNER FROM cash_card WHERE OWNER = ? ORDER BY AMOUNT, ID";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter cashCardWriter;
+    private final int fetchSize;
+    private final int flushInterval;
+
+    CashCardExporter(JdbcTemplate jdbcTemplate,
+                     PlatformTransactionManager transactionManager,
+                     ObjectMapper objectMapper,
+                     @Value("${cashcard.export.fetch-size:500}") int fetchSize,
+                     @Value("${cashcard.export.flush-interval:500}") int flushInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        // Ohne Flush nach jedem Wert wird nur alle flushInterval Zeilen geschrieben.
+        // Jackson trennt mehrere Werte sonst mit einem Leerzeichen, das dann jede Zeile einleiten würde.
+        this.cashCardWriter = objectMapper.writerFor(CashCard.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+        this.fetchSize = fetchSize;
+        this.flushInterval = flushInterval;
+    }
+
+    // Schreibt alle CashCards des Besitzers in den Ausgabestrom. Bricht der Client die
+    // Verbindung ab, wird die Abfrage beendet und die IOException weitergegeben.
+    // Die Abfrage läuft über das injizierte JdbcTemplate, damit dessen Einstellungen
+    // (z.B. spring.jdbc.template.query-timeout) auch für den Export gelten.
+    void export(String owner, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = cashCardWriter.createGenerator(outputStream)) {
+            transactionTemplate.executeWithoutResult(status -> {
+                boolean h2 = Boolean.TRUE.equals(
+                        jdbcTemplate.execute((ConnectionCallback<Boolean>) CashCardExporter::isH2));
+                if (h2) {
+                    jdbcTemplate.execute("SET LAZY_QUERY_EXECUTION TRUE");
+                }
+                try {
+                    jdbcTemplate.query(connection -> prepare(connection, owner), new NdjsonWriter(generator));
+                } finally {
+                    if (h2) {
+                        jdbcTemplate.execute("SET LAZY_QUERY_EXECUTION FALSE");
+                    }
+                }
+            });
+            generator.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Vorwärtsgerichteter, nur lesender Cursor, der fetchSize Zeilen auf einmal holt
+    private PreparedStatement prepare(Connection connection, String owner) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                EXPORT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize);
+        statement.setString(1, owner);
+        return statement;
+    }
+
+    // H2 liest Ergebnisse nur mit LAZY_QUERY_EXECUTION schrittweise,
+    // sonst wird das ganze Ergebnis vor der ersten Zeile materialisiert
+    private static boolean isH2(Connection connection) throws SQLException {
+        return "H2".equals(connection.getMetaData().getDatabaseProductName());
+    }
+
+    // Schreibt jede Zeile sofort als NDJSON und flusht alle flushInterval Zeilen
+    private class NdjsonWriter implements RowCallbackHandler {
+        private final JsonGenerator generator;
+        private int rows;
+
+        NdjsonWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            CashCard cashCard = new CashCard(
+                    resultSet.getLong("ID"),
+                    resultSet.getBigDecimal("AMOUNT"),
+                    resultSet.getString("OWNER"));
+            try {
+                cashCardWriter.writeValue(generator, cashCard);
+                generator.writeRaw('\n');
+                if (++rows % flushInterval == 0) {
+                    generator.flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package example.cashcard;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Der CashCardIdAllocator vergibt IDs für neue CashCards, bevor sie geschrieben werden.
+// Er holt die IDs blockweise (block-size) mit einer einzigen Abfrage aus der Sequenz
+// cash_card_id_seq, aus der auch die übrigen Wege zum Anlegen ihre IDs beziehen.
+// Dadurch gibt es keine Überschneidungen, und nur jede block-size-te ID kostet einen
+// Datenbankzugriff. Nicht vergebene IDs eines Blocks gehen beim Beenden verloren.
+class CashCardIdAllocator {
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+    private final Deque<Long> ids;
+
+    CashCardIdAllocator(JdbcTemplate jdbcTemplate, int blockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockSize = blockSize;
+        this.ids = new ArrayDeque<>(blockSize);
+    }
+
+    synchronized Long next() {
+        if (ids.isEmpty()) {
+            ids.addAll(jdbcTemplate.queryForList(
+                    "SELECT NEXT VALUE FOR cash_card_id_seq FROM SYSTEM_RANGE(1, ?)", Long.class, blockSize));
+        }
+        return ids.poll();
+    }
+}
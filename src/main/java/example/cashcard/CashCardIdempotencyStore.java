@@ -0,0 +1,124 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Der CashCardIdempotencyStore merkt sich zu jedem Idempotency-Key eines Besitzers die
+// ID der CashCard, die mit diesem Schlüssel angelegt wurde. Wiederholt ein Client die
+// Anfrage (z.B. nach einem Timeout), wird die ursprüngliche ID geliefert, ohne
+// cash_card erneut zu schreiben.
+// Im Speicher liegt pro Schlüssel ein CompletableFuture: Die erste Anfrage legt die
+// CashCard an, gleichzeitige Anfragen mit demselben Schlüssel warten auf ihr Ergebnis.
+// Einträge werden nach Größe und Lebensdauer (TTL) verdrängt.
+// Mit cashcard.idempotency.jdbc.enabled=true wird der Schlüssel zusätzlich in der Tabelle
+// idempotency_key gespeichert, in derselben Transaktion wie die CashCard. Er gilt dann auch
+// nach einem Neustart und über mehrere Instanzen hinweg. Das setzt voraus, dass create in
+// dieser Transaktion schreibt; mit dem Write-Behind-Modus ist es deshalb nicht vereinbar.
+@Component
+class CashCardIdempotencyStore {
+    private final Cache<String, CompletableFuture<Long>> createdIds;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean jdbcEnabled;
+    private final Duration timeToLive;
+
+    CashCardIdempotencyStore(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${cashcard.idempotency.time-to-live:24h}") Duration timeToLive,
+                             @Value("${cashcard.idempotency.maximum-size:100000}") long maximumSize,
+                             @Value("${cashcard.idempotency.jdbc.enabled:false}") boolean jdbcEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcEnabled = jdbcEnabled;
+        this.timeToLive = timeToLive;
+        this.createdIds = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .build();
+    }
+
+    // Gibt die ID der CashCard zurück, die mit diesem Schlüssel angelegt wurde. Gibt es
+    // noch keine, wird create genau einmal aufgerufen, auch bei gleichzeitigen Anfragen.
+    // Schlägt create fehl, wird der Schlüssel nicht gespeichert und kann erneut verwendet werden.
+    Long createOnce(String owner, String idempotencyKey, Supplier<Long> create) {
+        String cacheKey = owner + '\n' + idempotencyKey;
+        while (true) {
+            CompletableFuture<Long> created = new CompletableFuture<>();
+            CompletableFuture<Long> existing = createdIds.asMap().putIfAbsent(cacheKey, created);
+            if (existing != null) {
+                try {
+                    return existing.join();
+                } catch (CompletionException e) {
+                    // Die erste Anfrage ist fehlgeschlagen; der Eintrag ist entfernt, also erneut versuchen
+                    continue;
+                }
+            }
+            try {
+                Long id = jdbcEnabled ? createOrLookup(owner, idempotencyKey, create) : create.get();
+                created.complete(id);
+                return id;
+            } catch (RuntimeException e) {
+                createdIds.asMap().remove(cacheKey, created);
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    // Entfernt abgelaufene Schlüssel aus der Tabelle idempotency_key.
+    // fixedDelayString versteht nur Millisekunden oder ISO-8601 (PT1M), nicht 1m.
+    @Scheduled(fixedDelayString = "${cashcard.idempotency.cleanup-interval:PT1M}")
+    void deleteExpired() {
+        if (jdbcEnabled) {
+            jdbcTemplate.update("DELETE FROM idempotency_key WHERE created_at < ?",
+                    Timestamp.from(Instant.now().minus(timeToLive)));
+        }
+    }
+
+    private Long createOrLookup(String owner, String idempotencyKey, Supplier<Long> create) {
+        Long stored = lookup(owner, idempotencyKey);
+        if (stored != null) {
+            return stored;
+        }
+        try {
+            return transactionTemplate.execute(status -> {
+                Long id = create.get();
+                jdbcTemplate.update("""
+                        INSERT INTO idempotency_key (owner, idempotency_key, cash_card_id, created_at)
+                        VALUES (?, ?, ?, ?)
+                        """, owner, idempotencyKey, id, Timestamp.from(Instant.now()));
+                return id;
+            });
+        } catch (DuplicateKeyException e) {
+            // Eine andere Instanz hat den Schlüssel gleichzeitig verwendet; ihre CashCard
+            // gilt, die eigene wurde mit der Transaktion zurückgerollt
+            Long id = lookup(owner, idempotencyKey);
+            if (id == null) {
+                throw e;
+            }
+            return id;
+        }
+    }
+
+    private Long lookup(String owner, String idempotencyKey) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "SELECT cash_card_id FROM idempotency_key WHERE owner = ? AND idempotency_key = ?",
+                Long.class, owner, idempotencyKey);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+}
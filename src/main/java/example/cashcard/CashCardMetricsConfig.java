@@ -0,0 +1,29 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Die CashCardMetricsConfig meldet zusätzliche Metriken an Micrometer. Die Timer für
+// die Endpunkte (http.server.requests), das CashCardRepository
+// (spring.data.repository.invocations) und den Connection-Pool
+// (hikaricp.connections.acquire) richtet Spring Boot selbst ein.
+@Configuration
+class CashCardMetricsConfig {
+
+    // Treffer, Fehlzugriffe und Verdrängungen des CashCardCache (cache.gets, cache.evictions)
+    @Bean
+    MeterBinder cashCardCacheMetrics(CashCardCache cashCardCache) {
+        return registry -> CaffeineCacheMetrics.monitor(registry, cashCardCache.nativeCache(), "cashcards", Tags.empty());
+    }
+
+    // Anzahl der Abonnenten des Änderungs-Feeds (cashcard.events.subscribers)
+    @Bean
+    MeterBinder cashCardEventFeedMetrics(CashCardEventFeed cashCardEventFeed) {
+        return registry -> Gauge.builder("cashcard.events.subscribers", cashCardEventFeed, CashCardEventFeed::subscriberCount)
+                .register(registry);
+    }
+}
@@ -1,11 +1,92 @@
 package example.cashcard;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.util.List;
+
+// Alle Abfragen laufen in lesenden Transaktionen (readOnly = true), damit sie bei
+// aktivem Replikat-Routing von einem Replikat gelesen werden können, siehe
+// ReplicaRoutingDataSource. Schreibende Methoden sind einzeln mit @Transactional markiert.
+@Transactional(readOnly = true)
 public interface CashCardRepository extends CrudRepository<CashCard, Long>, PagingAndSortingRepository<CashCard, Long> {
     // This interface will automatically provide CRUD operations for CashCard
     // entities
     // No need to implement any methods, Spring Data JPA will handle it for us
 
+    // Die folgenden Abfragen sind auf einen Besitzer (owner) beschränkt und nutzen
+    // den Index cash_card_owner_amount_id, sodass nur die Zeilen dieses Besitzers
+    // gelesen werden.
+
+    // Sucht eine CashCard anhand ihrer ID, aber nur, wenn sie dem Besitzer gehört
+    CashCard findByIdAndOwner(Long id, String owner);
+
+    boolean existsByIdAndOwner(Long id, String owner);
+
+    // Eine Seite der CashCards eines Besitzers
+    Page<CashCard> findByOwner(String owner, PageRequest pageRequest);
+
+    // Liest nur die Version einer CashCard, um eine bedingte Anfrage (If-None-Match)
+    // ohne Laden der ganzen Zeile zu beantworten
+    @Query("SELECT version FROM cash_card WHERE id = :id AND owner = :owner")
+    Long findVersionByIdAndOwner(Long id, String owner);
+
+    // Version aller CashCards eines Besitzers als ETag für die Liste. Sie steht in
+    // cash_card_summary und wird bei jeder neuen CashCard und jeder Buchung erhöht,
+    // siehe CashCardSummaries; 0, solange der Besitzer keine CashCard hat.
+    @Query("SELECT COALESCE(MAX(version), 0) FROM cash_card_summary WHERE owner = :owner")
+    Long findListVersionByOwner(String owner);
+
+    // Erste Seite der Keyset-Paginierung, sortiert nach (amount, id)
+    @Query("SELECT * FROM cash_card WHERE owner = :owner ORDER BY amount, id LIMIT :limit")
+    List<CashCard> findFirstByAmountAndId(String owner, int limit);
+
+    // Folgeseite der Keyset-Paginierung: liest ab dem Sortierschlüssel (amount, id)
+    // des letzten Eintrags weiter, ohne OFFSET und ohne COUNT(*).
+    // Die Bedingung amount >= :amount erlaubt einen Range-Scan über den Index.
+    @Query("""
+            SELECT * FROM cash_card
+            WHERE owner = :owner AND amount >= :amount AND (amount > :amount OR id > :id)
+            ORDER BY amount, id LIMIT :limit
+            """)
+    List<CashCard> findAfterAmountAndId(String owner, BigDecimal amount, Long id, int limit);
+
+    // Erhöht den Betrag atomar in einer einzigen Anweisung, ohne vorheriges Lesen.
+    // Gibt false zurück, wenn es die CashCard für diesen Besitzer nicht gibt oder der neue
+    // Betrag nicht in die Spalte amount (NUMERIC(19, 2)) passt.
+    @Modifying
+    @Transactional
+    @Query("""
+            UPDATE cash_card SET amount = amount + :delta, version = version + 1
+            WHERE id = :id AND owner = :owner AND amount + :delta <= 99999999999999999.99
+            """)
+    boolean credit(Long id, String owner, BigDecimal delta);
+
+    // Verringert den Betrag atomar. Die Deckung wird in derselben Anweisung geprüft,
+    // daher gibt es kein Zeitfenster zwischen Prüfung und Änderung.
+    // Gibt false zurück, wenn es die CashCard nicht gibt oder der Betrag nicht reicht.
+    @Modifying
+    @Transactional
+    @Query("""
+            UPDATE cash_card SET amount = amount - :delta, version = version + 1
+            WHERE id = :id AND owner = :owner AND amount >= :delta
+            """)
+    boolean debit(Long id, String owner, BigDecimal delta);
+
+    // Betrag einer CashCard, für die Obergrenze gesammelter Aufbuchungen
+    @Query("SELECT amount FROM cash_card WHERE id = :id")
+    BigDecimal findAmountById(Long id);
+
+    // Schreibt gesammelte Aufbuchungen, siehe CashCardBalanceAccumulator. Der Besitzer
+    // wurde bereits beim Annehmen der Aufbuchungen geprüft.
+    @Modifying
+    @Transactional
+    @Query("UPDATE cash_card SET amount = amount + :delta, version = version + 1 WHERE id = :id")
+    boolean addToAmount(Long id, BigDecimal delta);
 }
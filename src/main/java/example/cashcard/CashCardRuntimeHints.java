@@ -0,0 +1,29 @@
+package example.cashcard;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+// Hinweise für die AOT-Verarbeitung und das Native Image. Jackson und Spring Data JDBC
+// lesen die Records per Reflection, daher müssen ihre Konstruktoren und Accessoren
+// im Native Image erhalten bleiben. Das Schema wird beim Start aus dem Classpath geladen.
+class CashCardRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> type : new Class<?>[] {
+                CashCard.class,
+                CashCardSlice.class,
+                CashCardBulkResult.class,
+                CashCardBulkResult.Item.class,
+                CashCardAdjustment.class,
+                CashCardSummary.class,
+                CashCardEvent.class}) {
+            hints.reflection().registerType(type,
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.INVOKE_DECLARED_METHODS,
+                    MemberCategory.DECLARED_FIELDS);
+        }
+        hints.resources().registerPattern("schema.sql");
+    }
+}
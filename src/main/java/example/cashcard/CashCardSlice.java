@@ -0,0 +1,9 @@
+package example.cashcard;
+
+import java.util.List;
+
+// Antwort der Keyset-Paginierung: der Inhalt der Seite und das Token für die
+// nächste Seite (null, wenn es keine weitere Seite gibt). Eine Gesamtanzahl
+// wird bewusst nicht geliefert, damit kein COUNT(*) nötig ist.
+record CashCardSlice(List<CashCard> content, String next) {
+}
@@ -0,0 +1,144 @@
+package example.cashcard;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.relational.core.mapping.event.AfterSaveCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+// CashCardSummaries pflegt die Tabelle cash_card_summary mit Summe, Anzahl, Minimum
+// und Maximum der Beträge pro Besitzer. Die Methoden müssen in der Transaktion der
+// Änderung an cash_card aufgerufen werden, damit die Kennzahlen mit ihr zusammen
+// festgeschrieben oder zurückgerollt werden. Lesen ist damit eine einzelne Zeile
+// pro Besitzer, unabhängig von der Anzahl der CashCards.
+// Die Zeile eines Besitzers wird zuerst mit einer relativen UPDATE-Anweisung gesperrt;
+// gleichzeitige Änderungen desselben Besitzers warten aufeinander und gehen nicht verloren.
+// Jede Änderung erhöht außerdem die Version der Zeile, die als ETag der Liste der
+// CashCards des Besitzers dient (CashCardController.findAll).
+@Component
+class CashCardSummaries implements AfterSaveCallback<CashCard> {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    CashCardSummaries(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Wird von Spring Data JDBC innerhalb der Transaktion von CashCardRepository.save
+    // aufgerufen. CashCards werden nur neu gespeichert; Beträge ändern sich über
+    // CashCardBalances, siehe amountChanged.
+    @Override
+    public CashCard onAfterSave(CashCard cashCard) {
+        cardsAdded(cashCard.owner(), List.of(cashCard.amount()));
+        return cashCard;
+    }
+
+    // Zählt neu eingefügte CashCards eines Besitzers zu seinen Kennzahlen hinzu
+    void cardsAdded(String owner, List<BigDecimal> amounts) {
+        if (amounts.isEmpty()) {
+            return;
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        BigDecimal min = null;
+        BigDecimal max = null;
+        for (BigDecimal requested : amounts) {
+            // So gerundet, wie die Spalte amount (NUMERIC(19, 2)) den Betrag speichert
+            BigDecimal amount = requested.setScale(2, RoundingMode.HALF_UP);
+            min = min == null ? amount : min.min(amount);
+            max = max == null ? amount : max.max(amount);
+            total = total.add(amount);
+        }
+        if (addCards(owner, amounts.size(), total, min, max)) {
+            return;
+        }
+        // Erste CashCard des Besitzers. Fügt eine gleichzeitige Transaktion die Zeile
+        // vorher ein, schlägt das INSERT fehl und die Änderung wird auf ihre Zeile gebucht.
+        try {
+            jdbcTemplate.update("""
+                    INSERT INTO cash_card_summary (owner, total, card_count, min_amount, max_amount, version)
+                    VALUES (?, ?, ?, ?, ?, 1)
+                    """, owner, total, amounts.size(), min, max);
+        } catch (DataIntegrityViolationException e) {
+            if (!addCards(owner, amounts.size(), total, min, max)) {
+                throw e;
+            }
+        }
+    }
+
+    // Bucht die Änderung des Betrags einer CashCard um delta auf die Kennzahlen ihres
+    // Besitzers. Minimum und Maximum werden nur dann aus cash_card neu bestimmt, wenn
+    // die geänderte CashCard bisher selbst das Minimum bzw. Maximum war und sich davon
+    // wegbewegt hat; sonst genügt ein Vergleich mit dem neuen Betrag.
+    void amountChanged(String owner, Long id, BigDecimal delta) {
+        int updated = jdbcTemplate.update(
+                "UPDATE cash_card_summary SET total = total + ?, version = version + 1 WHERE owner = ?",
+                delta, owner);
+        if (updated == 0) {
+            throw new IllegalStateException("No summary for owner of cash card " + id);
+        }
+        // Die Zeile ist jetzt gesperrt; die folgenden Abfragen sehen alle vorher
+        // festgeschriebenen Änderungen dieses Besitzers
+        BigDecimal newAmount = jdbcTemplate.queryForObject(
+                "SELECT amount FROM cash_card WHERE id = ?", BigDecimal.class, id);
+        BigDecimal oldAmount = newAmount.subtract(delta);
+        BigDecimal[] extremes = jdbcTemplate.queryForObject(
+                "SELECT min_amount, max_amount FROM cash_card_summary WHERE owner = ?",
+                (rs, rowNum) -> new BigDecimal[] {rs.getBigDecimal(1), rs.getBigDecimal(2)}, owner);
+        BigDecimal min = extremes[0];
+        BigDecimal max = extremes[1];
+
+        BigDecimal newMin = min;
+        if (newAmount.compareTo(min) < 0) {
+            newMin = newAmount;
+        } else if (delta.signum() > 0 && oldAmount.compareTo(min) == 0) {
+            newMin = jdbcTemplate.queryForObject(
+                    "SELECT MIN(amount) FROM cash_card WHERE owner = ?", BigDecimal.class, owner);
+        }
+        BigDecimal newMax = max;
+        if (newAmount.compareTo(max) > 0) {
+            newMax = newAmount;
+        } else if (delta.signum() < 0 && oldAmount.compareTo(max) == 0) {
+            newMax = jdbcTemplate.queryForObject(
+                    "SELECT MAX(amount) FROM cash_card WHERE owner = ?", BigDecimal.class, owner);
+        }
+        if (newMin.compareTo(min) != 0 || newMax.compareTo(max) != 0) {
+            jdbcTemplate.update("UPDATE cash_card_summary SET min_amount = ?, max_amount = ? WHERE owner = ?",
+                    newMin, newMax, owner);
+        }
+    }
+
+    // Kennzahlen eines Besitzers, eine Zeile per Primärschlüssel
+    CashCardSummary find(String owner) {
+        List<CashCardSummary> summaries = jdbcTemplate.query("""
+                SELECT owner, total, card_count, min_amount, max_amount
+                FROM cash_card_summary WHERE owner = ?
+                """, (rs, rowNum) -> new CashCardSummary(rs.getString(1), rs.getBigDecimal(2),
+                rs.getLong(3), rs.getBigDecimal(4), rs.getBigDecimal(5)), owner);
+        return summaries.isEmpty()
+                ? new CashCardSummary(owner, BigDecimal.ZERO.setScale(2), 0, null, null)
+                : summaries.get(0);
+    }
+
+    // Kennzahlen aller Besitzer, zusammengefasst aus einer Zeile pro Besitzer statt
+    // aus allen CashCards
+    CashCardSummary findOverall() {
+        return jdbcTemplate.queryForObject("""
+                SELECT COALESCE(SUM(total), 0), COALESCE(SUM(card_count), 0), MIN(min_amount), MAX(max_amount)
+                FROM cash_card_summary
+                """, (rs, rowNum) -> new CashCardSummary(null, rs.getBigDecimal(1).setScale(2),
+                rs.getLong(2), rs.getBigDecimal(3), rs.getBigDecimal(4)));
+    }
+
+    private boolean addCards(String owner, int count, BigDecimal total, BigDecimal min, BigDecimal max) {
+        return jdbcTemplate.update("""
+                UPDATE cash_card_summary
+                SET total = total + ?, card_count = card_count + ?,
+                    min_amount = LEAST(min_amount, ?), max_amount = GREATEST(max_amount, ?),
+                    version = version + 1
+                WHERE owner = ?
+                """, total, count, min, max, owner) > 0;
+    }
+}
@@ -0,0 +1,8 @@
+package example.cashcard;
+
+import java.math.BigDecimal;
+
+// Kennzahlen der CashCards eines Besitzers; für alle Besitzer zusammen ist owner null.
+// min und max sind null, solange es keine CashCard gibt.
+record CashCardSummary(String owner, BigDecimal total, long count, BigDecimal min, BigDecimal max) {
+}
@@ -0,0 +1,478 @@
+package example.cashcard;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Im Write-Behind-Modus (cashcard.write-behind.enabled=true) werden neue CashCards nicht
+// sofort in cash_card geschrieben, sondern in eine begrenzte Warteschlange übernommen:
+//  1. accept vergibt eine ID (CashCardIdAllocator) und reiht die CashCard ein. Ist die
+//     Warteschlange voll (queue-capacity), wird sie sofort abgelehnt.
+//  2. Der Journal-Thread hängt die wartenden CashCards gesammelt als NDJSON an die
+//     Journal-Datei an und schreibt sie mit force auf die Platte. Erst dann kehrt accept
+//     zurück; eine angenommene CashCard übersteht also auch einen Absturz.
+//  3. Der Writer-Thread schreibt die CashCards aus dem Journal blockweise (batch-size)
+//     per JDBC-Batch in cash_card, zusammen mit den Kennzahlen (CashCardSummaries) und
+//     den Ereignissen für den Änderungs-Feed (CashCardEventOutbox).
+// Sind alle Einträge des Journals in der Datenbank, wird die Datei geleert. Beim Start
+// werden übrig gebliebene Einträge erneut geschrieben; bereits vorhandene IDs werden
+// dabei übersprungen. Beim Beenden wird die Warteschlange vollständig abgearbeitet.
+// Vorübergehende Fehler (z.B. keine Verbindung zur Datenbank) werden wiederholt. Lehnt die
+// Datenbank einen Block endgültig ab, wird jede CashCard einzeln geschrieben; nur die
+// abgelehnten landen in der Dead-Letter-Datei (dead-letter) und blockieren nichts.
+// Idempotency-Keys in der Datenbank (cashcard.idempotency.jdbc.enabled) sind damit nicht
+// vereinbar: Sie verhindern doppelte CashCards nur, weil ihre Transaktion die CashCard bei
+// einem gleichzeitig verwendeten Schlüssel zurückrollt; eine CashCard im Journal lässt sich
+// nicht zurückrollen. Die Anwendung startet deshalb nicht mit beiden.
+@Component
+@ConditionalOnProperty(name = "cashcard.write-behind.enabled", havingValue = "true")
+class CashCardWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(CashCardWriteBehind.class);
+
+    // Fügt nur ein, wenn es die ID noch nicht gibt, damit das Journal mehrfach
+    // geschrieben werden kann
+    private static final String INSERT_SQL = """
+            INSERT INTO cash_card (ID, AMOUNT, OWNER)
+            SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM cash_card WHERE ID = ?)
+            """;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+    // Die Spalte AMOUNT ist NUMERIC(19, 2), siehe schema.sql
+    private static final int AMOUNT_PRECISION = 19;
+    private static final int AMOUNT_SCALE = 2;
+
+    // Die Warteschlange ist voll oder der Write-Behind-Modus wird gerade beendet
+    static class QueueFullException extends RuntimeException {
+        QueueFullException() {
+            super("Write-behind queue is full");
+        }
+    }
+
+    private record Entry(CashCard cashCard, CompletableFuture<Void> journaled) {
+    }
+
+    private enum Outcome {
+        WRITTEN,
+        REJECTED,
+        STOPPED
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CashCardSummaries cashCardSummaries;
+    private final CashCardEventOutbox cashCardEventOutbox;
+    private final CashCardCache cashCardCache;
+    private final CashCardIdAllocator idAllocator;
+    private final ObjectWriter journalWriter;
+    private final ObjectReader journalReader;
+    private final Path journalPath;
+    private final Path deadLetterPath;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final Duration drainTimeout;
+
+    // Ein Platz pro CashCard, die angenommen, aber noch nicht in cash_card geschrieben ist
+    private final Semaphore capacity;
+    private final BlockingQueue<Entry> accepted = new LinkedBlockingQueue<>();
+    private final BlockingQueue<CashCard> journaled = new LinkedBlockingQueue<>();
+    private final AtomicLong journaledCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    private FileChannel journal;
+    private Thread journalThread;
+    private Thread writerThread;
+    private volatile boolean accepting = true;
+    private volatile boolean stopped;
+
+    CashCardWriteBehind(JdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager,
+                        CashCardSummaries cashCardSummaries,
+                        CashCardEventOutbox cashCardEventOutbox,
+                        CashCardCache cashCardCache,
+                        ObjectMapper objectMapper,
+                        @Value("${cashcard.write-behind.journal:cashcard-write-behind.journal}") Path journalPath,
+                        @Value("${cashcard.write-behind.dead-letter:cashcard-write-behind.dead-letter}") Path deadLetterPath,
+                        @Value("${cashcard.write-behind.queue-capacity:10000}") int queueCapacity,
+                        @Value("${cashcard.write-behind.batch-size:500}") int batchSize,
+                        @Value("${cashcard.write-behind.id-block-size:1000}") int idBlockSize,
+                        @Value("${cashcard.write-behind.drain-timeout:30s}") Duration drainTimeout,
+                        @Value("${cashcard.idempotency.jdbc.enabled:false}") boolean jdbcIdempotencyEnabled) {
+        if (jdbcIdempotencyEnabled) {
+            throw new IllegalStateException(
+                    "cashcard.write-behind.enabled cannot be combined with cashcard.idempotency.jdbc.enabled");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cashCardSummaries = cashCardSummaries;
+        this.cashCardEventOutbox = cashCardEventOutbox;
+        this.cashCardCache = cashCardCache;
+        this.idAllocator = new CashCardIdAllocator(jdbcTemplate, idBlockSize);
+        this.journalWriter = objectMapper.writerFor(CashCard.class);
+        this.journalReader = objectMapper.readerFor(CashCard.class);
+        this.journalPath = journalPath;
+        this.deadLetterPath = deadLetterPath;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.drainTimeout = drainTimeout;
+        this.capacity = new Semaphore(queueCapacity);
+    }
+
+    // Schreibt die Einträge eines vorherigen Laufs und startet die beiden Threads
+    @PostConstruct
+    void start() throws IOException {
+        journal = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+        journalThread = new Thread(this::journalLoop, "cashcard-journal");
+        writerThread = new Thread(this::writeLoop, "cashcard-write-behind");
+        journalThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        journalThread.start();
+        writerThread.start();
+    }
+
+    // Ein Betrag, den die Spalte AMOUNT nicht aufnehmen kann, würde erst beim Schreiben
+    // abgelehnt, lange nach der Antwort 202-ACCEPTED. Er wird deshalb vorher geprüft.
+    static boolean isStorable(BigDecimal amount) {
+        return amount != null
+                && amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP).precision() <= AMOUNT_PRECISION;
+    }
+
+    // Nimmt eine neue CashCard an und gibt ihre ID zurück, sobald sie im Journal steht.
+    // Ist die Warteschlange voll, wird eine QueueFullException geworfen.
+    Long accept(String owner, BigDecimal amount) {
+        if (!accepting || !capacity.tryAcquire()) {
+            throw new QueueFullException();
+        }
+        Long id;
+        try {
+            id = idAllocator.next();
+        } catch (RuntimeException e) {
+            // z.B. keine Verbindung für die Sequenz: Der Platz wird nicht belegt
+            capacity.release();
+            throw e;
+        }
+        Entry entry = new Entry(new CashCard(id, amount, owner), new CompletableFuture<>());
+        accepted.add(entry);
+        // Der Journal-Thread räumt die Warteschlange nach stopped ein letztes Mal ab; ein
+        // später eingereihter Eintrag würde nie bestätigt und join nie zurückkehren
+        if (stopped && accepted.remove(entry)) {
+            capacity.release();
+            throw new QueueFullException();
+        }
+        try {
+            entry.journaled().join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException("Could not journal cash card " + entry.cashCard().id(),
+                    (IOException) e.getCause());
+        }
+        return entry.cashCard().id();
+    }
+
+    // Nimmt keine CashCards mehr an und wartet, bis alle angenommenen geschrieben sind.
+    // Was nach drain-timeout noch fehlt, bleibt im Journal und wird beim nächsten Start geschrieben.
+    @PreDestroy
+    void drain() throws InterruptedException, IOException {
+        accepting = false;
+        if (!capacity.tryAcquire(queueCapacity, drainTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("{} cash cards remain in the journal {}", queueCapacity - capacity.availablePermits(), journalPath);
+        }
+        stopped = true;
+        journalThread.join();
+        writerThread.join();
+        truncateJournalIfWritten();
+        journal.close();
+    }
+
+    private void journalLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (!stopped) {
+            Entry first;
+            try {
+                first = accepted.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                truncateJournalIfWritten();
+                continue;
+            }
+            batch.add(first);
+            accepted.drainTo(batch, batchSize - 1);
+            try {
+                append(batch);
+                journaledCount.addAndGet(batch.size());
+                for (Entry entry : batch) {
+                    journaled.add(entry.cashCard());
+                    entry.journaled().complete(null);
+                }
+            } catch (IOException e) {
+                log.error("Could not write {} cash cards to the journal {}", batch.size(), journalPath, e);
+                capacity.release(batch.size());
+                for (Entry entry : batch) {
+                    entry.journaled().completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        // Nach einem abgelaufenen drain-timeout warten vielleicht noch Anfragen
+        for (Entry entry = accepted.poll(); entry != null; entry = accepted.poll()) {
+            entry.journaled().completeExceptionally(new IOException("Write-behind is shutting down"));
+        }
+    }
+
+    // Hängt alle CashCards mit einem einzigen write und einem einzigen force an das Journal an
+    private void append(List<Entry> batch) throws IOException {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream(batch.size() * 64);
+        for (Entry entry : batch) {
+            journalWriter.writeValue(lines, entry.cashCard());
+            lines.write('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    private void writeLoop() {
+        List<CashCard> batch = new ArrayList<>(batchSize);
+        while (!stopped || !journaled.isEmpty()) {
+            CashCard first;
+            try {
+                first = journaled.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            journaled.drainTo(batch, batchSize - 1);
+            // Die CashCards stehen im Journal; bis zum Beenden wird es weiter versucht
+            if (writeOrDeadLetter(batch, true) == Outcome.STOPPED) {
+                return;
+            }
+            writtenCount.addAndGet(batch.size());
+            capacity.release(batch.size());
+            batch.clear();
+        }
+    }
+
+    // Schreibt die CashCards. Lehnt die Datenbank den Block ab, wird jede einzeln geschrieben
+    // und eine abgelehnte in die Dead-Letter-Datei verschoben. Ergibt WRITTEN, wenn jede
+    // CashCard entweder in cash_card oder in der Dead-Letter-Datei steht.
+    private Outcome writeOrDeadLetter(List<CashCard> batch, boolean retry) {
+        Outcome outcome = write(batch, retry);
+        if (outcome != Outcome.REJECTED) {
+            return outcome;
+        }
+        for (CashCard cashCard : batch) {
+            outcome = write(List.of(cashCard), retry);
+            if (outcome == Outcome.STOPPED) {
+                return outcome;
+            }
+            if (outcome == Outcome.REJECTED && !deadLetter(cashCard, retry)) {
+                return Outcome.STOPPED;
+            }
+        }
+        return Outcome.WRITTEN;
+    }
+
+    // Vorübergehende Fehler werden mit retry nach RETRY_DELAY wiederholt, bis zum Beenden;
+    // ohne retry werden sie weitergeworfen. Jeder andere Fehler ergibt REJECTED.
+    private Outcome write(List<CashCard> cashCards, boolean retry) {
+        while (true) {
+            try {
+                insert(cashCards);
+                break;
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    log.warn("The database rejected {} cash cards", cashCards.size(), e);
+                    return Outcome.REJECTED;
+                }
+                if (!retry) {
+                    throw e;
+                }
+                log.error("Could not write {} cash cards, retrying", cashCards.size(), e);
+                if (!awaitRetry()) {
+                    return Outcome.STOPPED;
+                }
+            }
+        }
+        for (CashCard cashCard : cashCards) {
+            cashCardCache.evict(cashCard.id());
+        }
+        return Outcome.WRITTEN;
+    }
+
+    // Keine Verbindung, Zeitüberschreitung, Deadlock oder eine Transaktion, die sich nicht
+    // starten lässt: Ein späterer Versuch kann gelingen
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof NonTransientDataAccessResourceException
+                || e instanceof TransactionException;
+    }
+
+    // Hängt die CashCard an die Dead-Letter-Datei an. Sie bleibt auch im Journal, bis
+    // die Dead-Letter-Datei geschrieben ist; false heißt, der Write-Behind-Modus endet.
+    private boolean deadLetter(CashCard cashCard, boolean retry) {
+        while (true) {
+            try (FileChannel deadLetters = FileChannel.open(deadLetterPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer line = ByteBuffer.wrap((journalWriter.writeValueAsString(cashCard) + '\n')
+                        .getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining()) {
+                    deadLetters.write(line);
+                }
+                deadLetters.force(false);
+                log.error("Moved cash card {} to the dead letter file {}", cashCard.id(), deadLetterPath);
+                return true;
+            } catch (IOException e) {
+                if (!retry) {
+                    throw new UncheckedIOException(e);
+                }
+                log.error("Could not write cash card {} to the dead letter file {}, retrying",
+                        cashCard.id(), deadLetterPath, e);
+                if (!awaitRetry()) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private boolean awaitRetry() {
+        if (stopped) {
+            return false;
+        }
+        try {
+            Thread.sleep(RETRY_DELAY.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Schreibt die CashCards in einer Transaktion und zählt nur die tatsächlich
+    // eingefügten zu den Kennzahlen ihres Besitzers; nur für sie gibt es ein Ereignis
+    private void insert(List<CashCard> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Object[]> rows = new ArrayList<>(batch.size());
+            for (CashCard cashCard : batch) {
+                rows.add(new Object[] {cashCard.id(), cashCard.amount(), cashCard.owner(), cashCard.id()});
+            }
+            int[] counts = jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+
+            Map<String, List<BigDecimal>> insertedAmounts = new LinkedHashMap<>();
+            List<Long> insertedIds = new ArrayList<>(batch.size());
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    CashCard cashCard = batch.get(i);
+                    insertedAmounts.computeIfAbsent(cashCard.owner(), owner -> new ArrayList<>()).add(cashCard.amount());
+                    insertedIds.add(cashCard.id());
+                }
+            }
+            insertedAmounts.forEach(cashCardSummaries::cardsAdded);
+            cashCardEventOutbox.record(CashCardEvent.Type.CREATED, insertedIds);
+        });
+    }
+
+    // Leert das Journal, wenn alle seine Einträge in cash_card stehen. Nur der
+    // Journal-Thread hängt Einträge an, daher kann dabei keiner verloren gehen.
+    private void truncateJournalIfWritten() {
+        try {
+            if (writtenCount.get() == journaledCount.get() && journal.size() > 0) {
+                journal.truncate(0);
+                journal.force(true);
+            }
+        } catch (IOException e) {
+            log.warn("Could not truncate the journal {}", journalPath, e);
+        }
+    }
+
+    // Schreibt die CashCards aus dem Journal eines vorherigen Laufs. Eine unvollständige
+    // letzte Zeile stammt von einem Absturz während des Schreibens; sie wurde nie
+    // bestätigt und wird übersprungen. Abgelehnte CashCards kommen in die Dead-Letter-Datei,
+    // damit sie den Start nicht blockieren; ist die Datenbank nicht erreichbar, schlägt der Start fehl.
+    // Danach wird das Journal immer geleert, auch wenn es nur eine unvollständige Zeile enthielt:
+    // Es wird ab Position 0 beschrieben, und Reste der alten Zeile stünden sonst hinter den neuen.
+    private void replay() throws IOException {
+        List<CashCard> cashCards = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    cashCards.add(journalReader.readValue(line));
+                } catch (JsonProcessingException e) {
+                    log.warn("Skipping incomplete journal entry in {}", journalPath);
+                }
+            }
+        }
+        if (!cashCards.isEmpty()) {
+            writeReplayed(cashCards);
+        }
+        journal.truncate(0);
+        journal.force(true);
+    }
+
+    private void writeReplayed(List<CashCard> cashCards) {
+        long maxId = 0;
+        for (int from = 0; from < cashCards.size(); from += batchSize) {
+            List<CashCard> batch = cashCards.subList(from, Math.min(from + batchSize, cashCards.size()));
+            writeOrDeadLetter(batch, false);
+            for (CashCard cashCard : batch) {
+                maxId = Math.max(maxId, cashCard.id());
+            }
+        }
+        // Die Sequenz darf keine ID aus dem Journal erneut vergeben, z.B. nach dem
+        // Neuaufbau einer Datenbank im Speicher
+        Long next = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR cash_card_id_seq", Long.class);
+        if (next <= maxId) {
+            jdbcTemplate.execute("ALTER SEQUENCE cash_card_id_seq RESTART WITH " + (maxId + 1));
+        }
+        log.info("Replayed {} cash cards from the journal {}", cashCards.size(), journalPath);
+    }
+}
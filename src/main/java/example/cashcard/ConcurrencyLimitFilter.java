@@ -0,0 +1,60 @@
+package example.cashcard;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Der ConcurrencyLimitFilter begrenzt die Anzahl gleichzeitig bearbeiteter Anfragen
+// an /cashcards über alle Benutzer (max-concurrent-requests). Ist die Grenze erreicht,
+// wartet eine Anfrage höchstens max-queue-time auf einen freien Platz; danach wird sie
+// mit 503-SERVICE_UNAVAILABLE und Retry-After abgewiesen, statt die Wartezeit aller
+// anderen Anfragen zu verlängern. Er läuft vor der Authentifizierung, damit abgewiesene
+// Anfragen kein BCrypt mehr kosten.
+// Bei gestreamten Antworten (Export) wird der Platz freigegeben, sobald die Bearbeitung
+// asynchron weiterläuft.
+class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private final Semaphore permits;
+    private final long maxQueueTimeNanos;
+
+    ConcurrencyLimitFilter(int maxConcurrentRequests, Duration maxQueueTime) {
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.maxQueueTimeNanos = maxQueueTime.toNanos();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/cashcards");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxQueueTimeNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
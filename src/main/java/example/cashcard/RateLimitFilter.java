@@ -0,0 +1,98 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Der RateLimitFilter begrenzt die Anfragen pro angemeldetem Benutzer mit einem
+// Token-Bucket (requests-per-second, burst). Er läuft nach der Authentifizierung in
+// der SecurityFilterChain, siehe SecurityConfig. Zu viele Anfragen werden mit
+// 429-TOO_MANY_REQUESTS und Retry-After beantwortet, bevor sie den Controller erreichen.
+// Der Zustand eines Benutzers ist ein einzelner AtomicLong, der per compareAndSet
+// geändert wird, daher gibt es keine Sperren zwischen gleichzeitigen Anfragen.
+class RateLimitFilter extends OncePerRequestFilter {
+
+    private final Cache<String, TokenBucket> buckets;
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+
+    RateLimitFilter(double requestsPerSecond, int burst, Duration idleTimeout, long maximumSize) {
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        this.burstNanos = emissionIntervalNanos * burst;
+        // Buckets von Benutzern, die länger nichts angefragt haben, sind wieder voll
+        // und werden daher verworfen
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterAccess(idleTimeout)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/cashcards");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        // Nicht angemeldete Anfragen werden von der Autorisierung abgelehnt
+        if (authentication == null || !authentication.isAuthenticated()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        TokenBucket bucket = buckets.get(authentication.getName(), name -> new TokenBucket(System.nanoTime()));
+        long waitNanos = bucket.tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds(waitNanos)));
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    // Retry-After wird in ganzen Sekunden angegeben, aufgerundet
+    static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // Token-Bucket in der Form des Generic Cell Rate Algorithm: statt der Anzahl Tokens
+    // wird der Zeitpunkt gespeichert, zu dem der Bucket wieder voll wäre
+    // (theoretical arrival time). Jede Anfrage schiebt ihn um ein Intervall weiter;
+    // liegt er mehr als burst Intervalle in der Zukunft, ist der Bucket leer.
+    private class TokenBucket {
+        private final AtomicLong theoreticalArrivalTime;
+
+        TokenBucket(long now) {
+            this.theoreticalArrivalTime = new AtomicLong(now);
+        }
+
+        // Gibt 0 zurück, wenn die Anfrage erlaubt ist, sonst die Wartezeit in Nanosekunden
+        long tryAcquire(long now) {
+            while (true) {
+                long current = theoreticalArrivalTime.get();
+                long next = Math.max(current, now) + emissionIntervalNanos;
+                long allowedAt = next - burstNanos;
+                if (allowedAt > now) {
+                    return allowedAt - now;
+                }
+                if (theoreticalArrivalTime.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package example.cashcard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Die ReplicaRoutingConfig ersetzt die DataSource von Spring Boot durch eine
+// ReplicaRoutingDataSource, wenn cashcard.replica.enabled=true gesetzt ist.
+// Die primäre Datenbank wird wie gewohnt über spring.datasource.* konfiguriert,
+// die Replikate über cashcard.replica.urls (kommagetrennt).
+// Die Pools der Replikate gehören zur Bean ReplicaDataSources, damit Spring sie beim
+// Herunterfahren schließt, und melden ihre Metriken (hikaricp.*) wie der primäre Pool.
+@Configuration
+@ConditionalOnProperty(name = "cashcard.replica.enabled", havingValue = "true")
+class ReplicaRoutingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    ReplicaDataSources replicaDataSources(
+            DataSourceProperties properties,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${cashcard.replica.urls}") List<String> replicaUrls,
+            @Value("${cashcard.replica.maximum-pool-size:20}") int replicaPoolSize) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName(ReplicaRoutingDataSource.replicaKey(i));
+            replica.setJdbcUrl(replicaUrls.get(i));
+            replica.setUsername(properties.determineUsername());
+            replica.setPassword(properties.determinePassword());
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setReadOnly(true);
+            meterRegistry.ifAvailable(replica::setMetricRegistry);
+            replicas.add(replica);
+        }
+        return new ReplicaDataSources(replicas);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(
+            HikariDataSource primaryDataSource,
+            ReplicaDataSources replicaDataSources,
+            @Value("${cashcard.replica.load-balancing:round-robin}") ReplicaRoutingDataSource.LoadBalancing loadBalancing,
+            @Value("${cashcard.replica.sticky-after-write:5s}") Duration stickyAfterWrite) {
+        List<HikariDataSource> replicas = replicaDataSources.all();
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(ReplicaRoutingDataSource.PRIMARY, primaryDataSource);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(ReplicaRoutingDataSource.replicaKey(i), replicas.get(i));
+        }
+
+        ReplicaRoutingDataSource routingDataSource =
+                new ReplicaRoutingDataSource(replicas.size(), loadBalancing, stickyAfterWrite);
+        routingDataSource.setTargetDataSources(targets);
+        routingDataSource.setDefaultTargetDataSource(primaryDataSource);
+        routingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    // Hält die Pools der Replikate; Spring ruft close() beim Herunterfahren auf
+    record ReplicaDataSources(List<HikariDataSource> all) implements AutoCloseable {
+
+        @Override
+        public void close() {
+            all.forEach(HikariDataSource::close);
+        }
+    }
+}
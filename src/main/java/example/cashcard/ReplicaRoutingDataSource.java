@@ -0,0 +1,73 @@
+package example.cashcard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Die ReplicaRoutingDataSource leitet lesende Transaktionen (readOnly = true) an eine
+// der Replikat-Datenbanken und alle anderen an die primäre Datenbank.
+// Hat ein Benutzer vor kurzem geschrieben (sticky-after-write), lesen auch seine
+// lesenden Transaktionen von der primären Datenbank, damit er seine eigenen
+// Änderungen sieht, auch wenn die Replikate noch nicht aufgeholt haben.
+// Sie muss hinter einem LazyConnectionDataSourceProxy liegen, da das readOnly-Flag
+// erst nach dem Beginn der Transaktion gesetzt ist.
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    static final String PRIMARY = "primary";
+
+    enum LoadBalancing {
+        ROUND_ROBIN,
+        RANDOM
+    }
+
+    private final int replicaCount;
+    private final LoadBalancing loadBalancing;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    // Benutzer, die innerhalb des Zeitfensters geschrieben haben
+    private final Cache<String, Boolean> recentWriters;
+
+    ReplicaRoutingDataSource(int replicaCount, LoadBalancing loadBalancing, Duration stickyAfterWrite) {
+        this.replicaCount = replicaCount;
+        this.loadBalancing = loadBalancing;
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(stickyAfterWrite)
+                .build();
+    }
+
+    static String replicaKey(int index) {
+        return "replica-" + index;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String user = currentUser();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (user != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+                recentWriters.put(user, Boolean.TRUE);
+            }
+            return PRIMARY;
+        }
+        if (replicaCount == 0 || (user != null && recentWriters.getIfPresent(user) != null)) {
+            return PRIMARY;
+        }
+        return replicaKey(nextReplicaIndex());
+    }
+
+    private int nextReplicaIndex() {
+        if (loadBalancing == LoadBalancing.RANDOM) {
+            return ThreadLocalRandom.current().nextInt(replicaCount);
+        }
+        return Math.floorMod(nextReplica.getAndIncrement(), replicaCount);
+    }
+
+    private static String currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? null : authentication.getName();
+    }
+}
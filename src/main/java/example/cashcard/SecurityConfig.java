@@ -1,7 +1,14 @@
 package example.cashcard;
 
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.ObservationAuthenticationManager;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.core.userdetails.User;
@@ -11,6 +18,9 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+
+import java.time.Duration;
 
 // Die Annotation @Configuration kennzeichnet die Klasse als Konfigurationsklasse für Spring, die
 // Bean-Definitionen enthält, die zur Konfiguration der gesamten Anwendung verwendet werden.
@@ -18,17 +28,73 @@ import org.springframework.security.web.SecurityFilterChain;
 // verwendet werden.
 @Configuration
 class SecurityConfig {
+    // Vor der Authentifizierung begrenzt der ConcurrencyLimitFilter die gleichzeitigen
+    // Anfragen aller Benutzer, danach der RateLimitFilter die Anfragen pro Benutzer.
+    // Die Filter werden hier erzeugt und nicht als Beans, damit Spring Boot sie nicht
+    // zusätzlich als Servlet-Filter für alle Anfragen registriert.
     @Bean
-    SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    SecurityFilterChain filterChain(
+            HttpSecurity http,
+            AuthenticationManager authenticationManager,
+            @Value("${cashcard.rate-limit.enabled:true}") boolean rateLimitEnabled,
+            @Value("${cashcard.rate-limit.requests-per-second:500}") double requestsPerSecond,
+            @Value("${cashcard.rate-limit.burst:1000}") int burst,
+            @Value("${cashcard.rate-limit.idle-timeout:10m}") Duration idleTimeout,
+            @Value("${cashcard.rate-limit.maximum-size:100000}") long maximumSize,
+            @Value("${cashcard.concurrency-limit.enabled:true}") boolean concurrencyLimitEnabled,
+            @Value("${cashcard.concurrency-limit.max-concurrent-requests:100}") int maxConcurrentRequests,
+            @Value("${cashcard.concurrency-limit.max-queue-time:50ms}") Duration maxQueueTime) throws Exception {
+        if (concurrencyLimitEnabled) {
+            http.addFilterBefore(new ConcurrencyLimitFilter(maxConcurrentRequests, maxQueueTime),
+                    BasicAuthenticationFilter.class);
+        }
+        if (rateLimitEnabled) {
+            http.addFilterAfter(new RateLimitFilter(requestsPerSecond, burst, idleTimeout, maximumSize),
+                    BasicAuthenticationFilter.class);
+        }
         http
+                .authenticationManager(authenticationManager)
                 .authorizeHttpRequests(request -> request
+                        // Kennzahlen über alle Besitzer nur für Administratoren
+                        .requestMatchers("/cashcards/summary/all")
+                        .hasRole("ADMIN")
                         .requestMatchers("/cashcards/**")
-                        .authenticated())
+                        .authenticated()
+                        // Health für das Monitoring ohne Anmeldung; die Metriken enthalten
+                        // Benutzernamen und interne Werte und sind nur für Administratoren
+                        .requestMatchers("/actuator/health")
+                        .permitAll()
+                        .requestMatchers("/actuator/prometheus")
+                        .hasRole("ADMIN"))
                 .httpBasic(Customizer.withDefaults())
                 .csrf(csrf -> csrf.disable());
         return http.build();
     }
 
+    // Der AuthenticationManager prüft Anmeldedaten nur beim ersten Mal mit BCrypt.
+    // Danach werden sie für kurze Zeit vom CachingAuthenticationProvider bestätigt.
+    // Ist Micrometer aktiv, wird jede Authentifizierung als Observation gemessen
+    // (Timer spring.security.authentications).
+    @Bean
+    AuthenticationManager authenticationManager(
+            UserDetailsService userDetailsService,
+            PasswordEncoder passwordEncoder,
+            ObjectProvider<ObservationRegistry> observationRegistry,
+            @Value("${cashcard.security.credential-cache.time-to-live:1m}") Duration timeToLive,
+            @Value("${cashcard.security.credential-cache.maximum-size:10000}") long maximumSize) {
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider();
+        daoAuthenticationProvider.setUserDetailsService(userDetailsService);
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        AuthenticationManager authenticationManager = new ProviderManager(new CachingAuthenticationProvider(
+                userDetailsService, daoAuthenticationProvider, timeToLive, maximumSize));
+
+        ObservationRegistry registry = observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP);
+        if (registry.isNoop()) {
+            return authenticationManager;
+        }
+        return new ObservationAuthenticationManager(registry, authenticationManager);
+    }
+
     @Bean
     PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -42,6 +108,16 @@ class SecurityConfig {
                 .password(passwordEncoder.encode("abc123"))
                 .roles() // Noch gibt es keine Rollen
                 .build();
-        return new InMemoryUserDetailsManager(sarah);
+        UserDetails kumar = users
+                .username("kumar2")
+                .password(passwordEncoder.encode("xyz789"))
+                .roles()
+                .build();
+        UserDetails admin = users
+                .username("admin1")
+                .password(passwordEncoder.encode("admin123"))
+                .roles("ADMIN")
+                .build();
+        return new InMemoryUserDetailsManager(sarah, kumar, admin);
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package example.cashcard;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Die VirtualThreadConfig lässt Tomcat jede Anfrage auf einem eigenen virtuellen
+// Thread verarbeiten. Damit blockiert ein Aufruf des CashCardRepository keinen
+// Plattform-Thread mehr, und die Anzahl gleichzeitiger Anfragen ist nicht mehr durch
+// den Thread-Pool begrenzt, sondern durch den Connection-Pool (Hikari).
+// Die Konfiguration ist nur aktiv, wenn cashcard.virtual-threads.enabled=true gesetzt
+// ist, und benötigt Java 21 (./gradlew bootRun -PjavaVersion=21).
+@Configuration
+@ConditionalOnProperty(name = "cashcard.virtual-threads.enabled", havingValue = "true")
+class VirtualThreadConfig {
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(newVirtualThreadPerTaskExecutor());
+    }
+
+    // Ersetzt den Executor für asynchrone Anfragen, z.B. den NDJSON-Export
+    @Bean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(newVirtualThreadPerTaskExecutor());
+    }
+
+    // Das Projekt wird standardmäßig mit Java 17 gebaut, daher wird die Java-21-API
+    // per Reflection aufgerufen
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+    }
+}
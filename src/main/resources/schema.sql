@@ -1,6 +1,54 @@
+-- Die IDs kommen aus einer Sequenz, damit der Write-Behind-Modus Blöcke von IDs
+-- vorab reservieren kann, siehe CashCardIdAllocator
+CREATE SEQUENCE cash_card_id_seq;
+
 CREATE TABLE cash_card
 (
-    ID       BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
-    AMOUNT   NUMBER NOT NULL DEFAULT 0,
-    OWNER    VARCHAR(256) NOT NULL
-);
\ No newline at end of file
+    ID       BIGINT DEFAULT NEXT VALUE FOR cash_card_id_seq PRIMARY KEY,
+    AMOUNT   NUMERIC(19, 2) NOT NULL DEFAULT 0,
+    OWNER    VARCHAR(256) NOT NULL,
+    VERSION  BIGINT NOT NULL DEFAULT 0
+);
+
+-- Index für Abfragen eines Besitzers, sortiert nach (amount, id); dient auch der Keyset-Paginierung
+CREATE INDEX cash_card_owner_amount_id ON cash_card (OWNER, AMOUNT, ID);
+
+-- Kennzahlen pro Besitzer. Jede Änderung an cash_card aktualisiert die Zeile ihres
+-- Besitzers in derselben Transaktion, siehe CashCardSummaries. VERSION wird dabei
+-- jedes Mal erhöht und dient als ETag der Liste der CashCards des Besitzers.
+CREATE TABLE cash_card_summary
+(
+    OWNER       VARCHAR(256) PRIMARY KEY,
+    TOTAL       NUMERIC(19, 2) NOT NULL DEFAULT 0,
+    CARD_COUNT  BIGINT NOT NULL DEFAULT 0,
+    MIN_AMOUNT  NUMERIC(19, 2),
+    MAX_AMOUNT  NUMERIC(19, 2),
+    VERSION     BIGINT NOT NULL DEFAULT 0
+);
+
+-- Idempotency-Keys für POST /cashcards, nur mit cashcard.idempotency.jdbc.enabled=true,
+-- siehe CashCardIdempotencyStore
+CREATE TABLE idempotency_key
+(
+    OWNER            VARCHAR(256) NOT NULL,
+    IDEMPOTENCY_KEY  VARCHAR(255) NOT NULL,
+    CASH_CARD_ID     BIGINT NOT NULL,
+    CREATED_AT       TIMESTAMP NOT NULL,
+    PRIMARY KEY (OWNER, IDEMPOTENCY_KEY)
+);
+
+-- Outbox für den Änderungs-Feed: jede Änderung an cash_card schreibt in derselben
+-- Transaktion ein Ereignis mit dem neuen Stand, siehe CashCardEventOutbox und CashCardEventFeed
+CREATE TABLE cash_card_event
+(
+    SEQ           BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    TYPE          VARCHAR(16) NOT NULL,
+    CASH_CARD_ID  BIGINT NOT NULL,
+    AMOUNT        NUMERIC(19, 2) NOT NULL,
+    OWNER         VARCHAR(256) NOT NULL,
+    VERSION       BIGINT NOT NULL,
+    CREATED_AT    TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Index für das Fortsetzen des Feeds eines Besitzers ab einer Sequenznummer
+CREATE INDEX cash_card_event_owner_seq ON cash_card_event (OWNER, SEQ);
@@ -1,5 +1,6 @@
 package example.cashcard;
 
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import net.minidev.json.JSONArray;
@@ -7,11 +8,21 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.UserDetailsManager;
 import org.springframework.test.annotation.DirtiesContext;
 
+import java.math.BigDecimal;
 import java.net.URI;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -25,6 +36,18 @@ class CashCardApplicationTests {
         @Autowired
         TestRestTemplate restTemplate;
 
+        @Autowired
+        CashCardCache cashCardCache;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        @Autowired
+        UserDetailsManager userDetailsManager;
+
+        @Autowired
+        PasswordEncoder passwordEncoder;
+
         // Dies ist ein Test für den GET-Endpunkt, der bei einer Abfrage einer bekannten
         // ID (99) für eine CashCard den HTTP-Status 200-OK zurückgeben soll, sowie
         // korrekte JSON-Daten mit id=99 und amount=123.45.
@@ -62,7 +85,7 @@ class CashCardApplicationTests {
         @Test
         @DirtiesContext
         void shouldCreateANewCashCard() {
-                CashCard newCashCard = new CashCard(null, 250.00, "sarah1");
+                CashCard newCashCard = new CashCard(null, new BigDecimal("250.00"), "sarah1");
                 ResponseEntity<Void> createResponse = restTemplate
                                 .withBasicAuth("sarah1", "abc123")
                                 .postForEntity("/cashcards", newCashCard, Void.class);
@@ -185,4 +208,340 @@ class CashCardApplicationTests {
                                 .getForEntity("/cashcard", String.class);
                 assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
         }
+
+        // Dies ist ein Test für den Cache der Anmeldedaten. Nach einer Passwortänderung
+        // wird das alte Passwort sofort abgelehnt, ebenso jede Anmeldung eines gelöschten
+        // Benutzers, obwohl die vorherige Anmeldung noch im Cache liegt.
+        @Test
+        void shouldRejectCachedCredentialsAfterThePasswordChangesOrTheUserIsDeleted() {
+                userDetailsManager.createUser(User.withUsername("temp1")
+                                .password(passwordEncoder.encode("old123"))
+                                .roles()
+                                .build());
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("temp1", "old123")
+                                .getForEntity("/cashcards", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                userDetailsManager.updateUser(User.withUsername("temp1")
+                                .password(passwordEncoder.encode("new123"))
+                                .roles()
+                                .build());
+                response = restTemplate
+                                .withBasicAuth("temp1", "old123")
+                                .getForEntity("/cashcards", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+                response = restTemplate
+                                .withBasicAuth("temp1", "new123")
+                                .getForEntity("/cashcards", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                userDetailsManager.deleteUser("temp1");
+                response = restTemplate
+                                .withBasicAuth("temp1", "new123")
+                                .getForEntity("/cashcards", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        }
+
+        // Dies ist ein Test für die Keyset-Paginierung. Die CashCards werden mit
+        // einer Seitengröße von 2 abgerufen. Die erste Seite muss ein Token für die
+        // nächste Seite enthalten, die zweite Seite die letzte CashCard und kein
+        // weiteres Token.
+        @Test
+        void shouldReturnCashCardsPageByPageUsingACursor() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/seek?size=2", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                JSONArray amounts = documentContext.read("$.content[*].amount");
+                assertThat(amounts).containsExactly(1.00, 123.45);
+                String next = documentContext.read("$.next");
+                assertThat(next).isNotNull();
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/seek?size=2&cursor=" + next, String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                documentContext = JsonPath.parse(response.getBody());
+                amounts = documentContext.read("$.content[*].amount");
+                assertThat(amounts).containsExactly(150.00);
+                Object last = documentContext.read("$.next");
+                assertThat(last).isNull();
+        }
+
+        // Dies ist ein Test für die Keyset-Paginierung mit einem ungültigen Cursor,
+        // der mit dem HTTP-Status 400-BAD_REQUEST beantwortet werden soll.
+        @Test
+        void shouldRejectAnInvalidCursor() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/seek?cursor=not-a-cursor", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        }
+
+        // Dies ist ein Test für den Cache des GET-Endpunkts. Die zweite Abfrage
+        // derselben CashCard muss aus dem Cache beantwortet werden und liefert
+        // dieselben Daten wie die erste Abfrage.
+        @Test
+        void shouldServeARepeatedRequestFromTheCache() {
+                ResponseEntity<String> first = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/100", String.class);
+                long hitsBefore = cashCardCache.stats().hitCount();
+
+                ResponseEntity<String> second = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/100", String.class);
+                assertThat(second.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(second.getBody()).isEqualTo(first.getBody());
+                assertThat(cashCardCache.stats().hitCount()).isEqualTo(hitsBefore + 1);
+        }
+
+        // Dies ist ein Test für den Cache der Anmeldedaten. Nach einer erfolgreichen
+        // Anmeldung muss ein falsches Passwort für denselben Benutzer weiterhin mit
+        // dem HTTP-Status 401-UNAUTHORIZED abgelehnt werden.
+        @Test
+        void shouldNotAcceptABadPasswordAfterASuccessfulLogin() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/99", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "BAD-PASSWORD")
+                                .getForEntity("/cashcards/99", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        }
+
+        // Dies ist ein Test für den Massenimport als JSON-Array. Die gültigen
+        // CashCards werden gespeichert und erhalten IDs in der Reihenfolge der
+        // Anfrage, die ungültige CashCard (ohne Betrag) wird als Fehler gemeldet.
+        @Test
+        @DirtiesContext
+        void shouldCreateManyCashCardsAndReportInvalidOnes() {
+                String body = """
+                                [
+                                        {"amount": 10.00, "owner": "sarah1"},
+                                        {"owner": "sarah1"},
+                                        {"amount": 20.00, "owner": "sarah1"}
+                                ]
+                                """;
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/bulk", new HttpEntity<>(body, headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                int created = documentContext.read("$.created");
+                int failed = documentContext.read("$.failed");
+                assertThat(created).isEqualTo(2);
+                assertThat(failed).isEqualTo(1);
+
+                Number firstId = documentContext.read("$.items[0].id");
+                Object secondId = documentContext.read("$.items[1].id");
+                String secondError = documentContext.read("$.items[1].error");
+                Number thirdId = documentContext.read("$.items[2].id");
+                assertThat(secondId).isNull();
+                assertThat(secondError).isNotBlank();
+                assertThat(thirdId.longValue()).isGreaterThan(firstId.longValue());
+
+                ResponseEntity<String> getResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/" + thirdId, String.class);
+                assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+                Double amount = JsonPath.parse(getResponse.getBody()).read("$.amount");
+                assertThat(amount).isEqualTo(20.00);
+        }
+
+        // Dies ist ein Test für einen Block mit einem Eintrag, den die Datenbank ablehnt
+        // (Betrag zu groß für NUMERIC(19, 2)). Nur dieser Eintrag wird als Fehler gemeldet,
+        // die übrigen Einträge desselben Blocks werden gespeichert.
+        @Test
+        @DirtiesContext
+        void shouldOnlyReportTheRowsTheDatabaseRejects() {
+                String body = """
+                                [
+                                        {"amount": 10.00},
+                                        {"amount": 100000000000000000000.00},
+                                        {"amount": 20.00}
+                                ]
+                                """;
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/bulk", new HttpEntity<>(body, headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                int created = documentContext.read("$.created");
+                int failed = documentContext.read("$.failed");
+                assertThat(created).isEqualTo(2);
+                assertThat(failed).isEqualTo(1);
+                Number firstId = documentContext.read("$.items[0].id");
+                Object secondId = documentContext.read("$.items[1].id");
+                Number thirdId = documentContext.read("$.items[2].id");
+                assertThat(firstId).isNotNull();
+                assertThat(secondId).isNull();
+                assertThat(thirdId).isNotNull();
+        }
+
+        // Dies ist ein Test für den Massenimport als NDJSON-Stream. Jede Zeile
+        // enthält eine CashCard, eine nicht lesbare Zeile wird als Fehler gemeldet.
+        @Test
+        @DirtiesContext
+        void shouldCreateCashCardsFromAnNdjsonStream() {
+                String body = """
+                                {"amount": 5.00, "owner": "sarah1"}
+                                not json
+                                {"amount": 6.00, "owner": "sarah1"}
+                                """;
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_NDJSON);
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/bulk", new HttpEntity<>(body, headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                int created = documentContext.read("$.created");
+                int failed = documentContext.read("$.failed");
+                assertThat(created).isEqualTo(2);
+                assertThat(failed).isEqualTo(1);
+                Object secondId = documentContext.read("$.items[1].id");
+                assertThat(secondId).isNull();
+        }
+
+        // Dies ist ein Test für die Trennung der Besitzer. Eine CashCard, die einem
+        // anderen Benutzer gehört (hier 102 von kumar2), wird wie eine unbekannte ID
+        // mit 404-NOT_FOUND beantwortet und erscheint nicht in der Liste.
+        @Test
+        void shouldNotReturnACashCardOwnedBySomeoneElse() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/102", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards", String.class);
+                JSONArray ids = JsonPath.parse(response.getBody()).read("$..id");
+                assertThat(ids).doesNotContain(102);
+
+                // Auch eine bereits im Cache liegende CashCard eines anderen Besitzers wird nicht geliefert
+                restTemplate.withBasicAuth("sarah1", "abc123").getForEntity("/cashcards/99", String.class);
+                response = restTemplate
+                                .withBasicAuth("kumar2", "xyz789")
+                                .getForEntity("/cashcards/99", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        }
+
+        // Dies ist ein Test für das Buchen auf eine CashCard eines anderen Besitzers,
+        // das mit 404-NOT_FOUND abgelehnt wird.
+        @Test
+        void shouldNotAdjustACashCardOwnedBySomeoneElse() {
+                ResponseEntity<Void> response = restTemplate
+                                .withBasicAuth("kumar2", "xyz789")
+                                .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.TEN), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        }
+
+        // Dies ist ein Test für den Ausführungsplan der Abfrage nach Besitzer. Die
+        // Abfrage muss den Index cash_card_owner_amount_id verwenden und darf die
+        // Tabelle nicht vollständig lesen.
+        @Test
+        void shouldUseTheOwnerIndexForOwnerScopedQueries() {
+                String plan = jdbcTemplate.queryForObject(
+                                "EXPLAIN SELECT * FROM cash_card WHERE owner = 'sarah1' ORDER BY amount, id LIMIT 20",
+                                String.class);
+                assertThat(plan).containsIgnoringCase("CASH_CARD_OWNER_AMOUNT_ID");
+        }
+
+        // Dies ist ein Test für bedingte GET-Anfragen. Die Antwort enthält einen ETag.
+        // Wird er mit If-None-Match erneut gesendet, antwortet die API mit
+        // 304-NOT_MODIFIED ohne Inhalt. Nach einer Buchung ändert sich der ETag.
+        @Test
+        @DirtiesContext
+        void shouldReturnNotModifiedForAnUnchangedCashCard() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/99", String.class);
+                String eTag = response.getHeaders().getETag();
+                assertThat(eTag).isNotNull();
+
+                HttpHeaders headers = new HttpHeaders();
+                headers.setIfNoneMatch(eTag);
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .exchange("/cashcards/99", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+                assertThat(response.getBody()).isNull();
+
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .exchange("/cashcards/99", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+        }
+
+        // Dies ist ein Test für bedingte GET-Anfragen auf die Liste der CashCards.
+        // Nach einer Buchung auf eine der CashCards ändert sich der ETag der Liste.
+        @Test
+        @DirtiesContext
+        void shouldReturnNotModifiedForAnUnchangedList() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards", String.class);
+                String eTag = response.getHeaders().getETag();
+                assertThat(eTag).isNotNull();
+
+                HttpHeaders headers = new HttpHeaders();
+                headers.setIfNoneMatch(eTag);
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .exchange("/cashcards", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/100/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .exchange("/cashcards", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+        }
+
+        // Dies ist ein Test für das Binärformat CBOR. Mit Accept: application/cbor wird
+        // die CashCard als CBOR geliefert und kann wieder gelesen werden.
+        @Test
+        void shouldReturnACashCardAsCbor() throws Exception {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setAccept(List.of(MediaType.APPLICATION_CBOR));
+                ResponseEntity<byte[]> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .exchange("/cashcards/99", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_CBOR);
+
+                CashCard cashCard = new CBORMapper().readValue(response.getBody(), CashCard.class);
+                assertThat(cashCard.id()).isEqualTo(99L);
+                assertThat(cashCard.amount()).isEqualByComparingTo("123.45");
+
+                // JSON und CBOR derselben Version teilen sich einen schwachen ETag
+                ResponseEntity<String> jsonResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/99", String.class);
+                assertThat(response.getHeaders().getETag()).startsWith("W/")
+                                .isEqualTo(jsonResponse.getHeaders().getETag());
+                assertThat(response.getHeaders().getVary()).contains(HttpHeaders.ACCEPT);
+        }
 }
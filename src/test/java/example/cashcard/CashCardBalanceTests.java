@@ -0,0 +1,185 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardBalanceTests testet das Auf- und Abbuchen von Beträgen, auch
+//bei vielen gleichzeitigen Buchungen. Die CashCard 100 ist als häufig genutzte
+//CashCard konfiguriert, deren Aufbuchungen gesammelt geschrieben werden, ebenso die
+//nicht vorhandene CashCard 5000.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.balance.hot-cards=100,5000", "cashcard.balance.flush-interval=60000"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardBalanceTests {
+        private static final int THREADS = 8;
+        private static final int UPDATES_PER_THREAD = 50;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        CashCardBalanceAccumulator accumulator;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        // Dies ist ein Test für das Abbuchen. Ein Betrag, der größer als das Guthaben
+        // ist, wird mit 409-CONFLICT abgelehnt und ändert das Guthaben nicht.
+        @Test
+        void shouldRejectADebitThatWouldOverdrawTheCashCard() {
+                ResponseEntity<Void> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/debit", new CashCardAdjustment(new BigDecimal("200.00")), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/debit", new CashCardAdjustment(new BigDecimal("23.45")), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+                assertThat(amountOf(99)).isEqualTo(100.00);
+        }
+
+        // Dies ist ein Test für das Buchen auf eine unbekannte CashCard, das mit
+        // 404-NOT_FOUND beantwortet werden soll.
+        @Test
+        void shouldNotAdjustAnUnknownCashCard() {
+                ResponseEntity<Void> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/1000/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        }
+
+        // Auch eine gesammelte Aufbuchung wird sofort mit 404-NOT_FOUND abgelehnt, wenn die
+        // CashCard nicht existiert oder einem anderen Benutzer gehört, statt angenommen
+        // und erst beim Flush verworfen zu werden.
+        @Test
+        void shouldNotAcceptACreditForAHotCashCardOfSomeoneElse() {
+                ResponseEntity<Void> response = restTemplate
+                                .withBasicAuth("kumar2", "xyz789")
+                                .postForEntity("/cashcards/100/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/5000/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+                accumulator.flush();
+                assertThat(amountOf(100)).isEqualTo(1.00);
+        }
+
+        // Eine Aufbuchung, nach der das Guthaben nicht mehr in NUMERIC(19, 2) passt, wird mit
+        // 400-BAD_REQUEST abgelehnt, für eine gewöhnliche wie für eine häufig genutzte CashCard
+        @Test
+        void shouldRejectACreditThatTheDatabaseCannotStore() {
+                for (String url : List.of("/cashcards/101/credit", "/cashcards/100/credit")) {
+                        for (String amount : List.of("99999999999999999.00", "1000000000000000000000000")) {
+                                ResponseEntity<Void> response = restTemplate
+                                                .withBasicAuth("sarah1", "abc123")
+                                                .postForEntity(url, new CashCardAdjustment(new BigDecimal(amount)), Void.class);
+                                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+                        }
+                }
+
+                accumulator.flush();
+                assertThat(amountOf(101)).isEqualTo(150.00);
+                assertThat(amountOf(100)).isEqualTo(1.00);
+        }
+
+        // Dies ist ein Test für gesammelte Aufbuchungen, die die Datenbank endgültig ablehnt,
+        // hier weil der Betrag an der Anwendung vorbei erhöht wurde. Sie werden verworfen;
+        // spätere Flushes und Abbuchungen auf die CashCard schlagen nicht mehr fehl.
+        @Test
+        void shouldDropAccumulatedCreditsThatTheDatabaseRejects() {
+                ResponseEntity<Void> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/100/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+                jdbcTemplate.update("UPDATE cash_card SET amount = 99999999999999999.00 WHERE id = 100");
+
+                accumulator.flush();
+                accumulator.flush();
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/100/debit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        }
+
+        // Dies ist ein Lasttest für gleichzeitige Aufbuchungen auf dieselbe CashCard.
+        // Alle Aufbuchungen müssen im Guthaben ankommen, es darf keine verloren gehen.
+        @Test
+        void shouldNotLoseConcurrentCredits() throws Exception {
+                long durationNanos = runConcurrently("/cashcards/101/credit", HttpStatus.NO_CONTENT);
+
+                assertThat(amountOf(101)).isEqualTo(150.00 + THREADS * UPDATES_PER_THREAD);
+                report("direct", durationNanos);
+        }
+
+        // Dies ist ein Lasttest für eine häufig genutzte CashCard. Die Aufbuchungen
+        // werden gesammelt und erst beim Flush in einer Anweisung geschrieben.
+        @Test
+        void shouldNotLoseConcurrentCreditsOnAHotCashCard() throws Exception {
+                long durationNanos = runConcurrently("/cashcards/100/credit", HttpStatus.ACCEPTED);
+                accumulator.flush();
+
+                assertThat(amountOf(100)).isEqualTo(1.00 + THREADS * UPDATES_PER_THREAD);
+                report("accumulated", durationNanos);
+        }
+
+        private long runConcurrently(String url, HttpStatus expectedStatus) throws Exception {
+                ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+                List<Future<?>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < THREADS; t++) {
+                        futures.add(executor.submit(() -> {
+                                for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                                        ResponseEntity<Void> response = restTemplate
+                                                        .withBasicAuth("sarah1", "abc123")
+                                                        .postForEntity(url, new CashCardAdjustment(new BigDecimal("1.00")), Void.class);
+                                        assertThat(response.getStatusCode()).isEqualTo(expectedStatus);
+                                }
+                        }));
+                }
+                for (Future<?> future : futures) {
+                        future.get();
+                }
+                long durationNanos = System.nanoTime() - start;
+                executor.shutdown();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+                return durationNanos;
+        }
+
+        private double amountOf(long id) {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/" + id, String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                Number amount = JsonPath.parse(response.getBody()).read("$.amount");
+                return amount.doubleValue();
+        }
+
+        private static void report(String mode, long durationNanos) {
+                int updates = THREADS * UPDATES_PER_THREAD;
+                System.out.printf("%s: %d Aufbuchungen in %d ms (%.0f Aufbuchungen/s)%n",
+                                mode, updates, TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                                updates / (durationNanos / 1_000_000_000.0));
+        }
+}
@@ -0,0 +1,306 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardEventFeedTests testet den Änderungs-Feed (GET /cashcards/events)
+//mit vielen gleichzeitigen Abonnenten. Rate- und Concurrency-Limit sind abgeschaltet,
+//da alle Abonnenten als sarah1 angemeldet sind.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.rate-limit.enabled=false", "cashcard.concurrency-limit.enabled=false",
+                                "cashcard.events.poll-interval=10", "cashcard.events.gap-timeout=200ms",
+                                "cashcard.events.heartbeat-interval=PT0.1S"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardEventFeedTests {
+        private static final int SUBSCRIBERS = 1000;
+        private static final int EVENTS = 5;
+        // Obergrenze für die Latenz (p99) von der Antwort auf die Aufbuchung bis zum Empfang
+        private static final long MAX_P99_LATENCY_MILLIS = 1000;
+        // Genug Ereignisse, um die Socket-Puffer eines Clients, der nichts liest, zu füllen
+        private static final int OVERFLOW_EVENTS = 200_000;
+
+        @LocalServerPort
+        int port;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        CashCardEventFeed cashCardEventFeed;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // Dies ist ein Lasttest mit 1000 Abonnenten. Jede Aufbuchung erzeugt ein Ereignis,
+        // das jeder Abonnent genau einmal und in der richtigen Reihenfolge erhalten muss.
+        // Gemessen wird die Zeit von der Antwort auf die Aufbuchung bis zum Empfang.
+        @Test
+        void shouldDeliverEveryEventToManySubscribers() throws Exception {
+                List<EventCollector> collectors = new ArrayList<>();
+                for (int i = 0; i < SUBSCRIBERS; i++) {
+                        collectors.add(subscribe("sarah1", "abc123", null, false));
+                }
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == SUBSCRIBERS);
+
+                Map<Long, Long> committedAt = new ConcurrentHashMap<>();
+                for (int i = 0; i < EVENTS; i++) {
+                        ResponseEntity<Void> response = restTemplate
+                                        .withBasicAuth("sarah1", "abc123")
+                                        .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+                        // Die Version der CashCard 99 identifiziert das Ereignis
+                        committedAt.put((long) i + 1, System.nanoTime());
+                        Thread.sleep(50);
+                }
+                awaitTrue(() -> collectors.stream().allMatch(collector -> collector.events.size() == EVENTS));
+
+                List<Long> latencies = new ArrayList<>();
+                for (EventCollector collector : collectors) {
+                        assertThat(collector.events).extracting(ReceivedEvent::version).containsExactly(1L, 2L, 3L, 4L, 5L);
+                        for (ReceivedEvent event : collector.events) {
+                                latencies.add(event.receivedAt() - committedAt.get(event.version()));
+                        }
+                }
+                Collections.sort(latencies);
+                long p50 = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() / 2));
+                long p99 = TimeUnit.NANOSECONDS.toMillis(latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1));
+                assertThat(p99)
+                                .as("Latenz p50 %d ms, p99 %d ms", p50, p99)
+                                .isLessThan(MAX_P99_LATENCY_MILLIS);
+        }
+
+        // Dies ist ein Test für einen Abonnenten, der nichts mehr liest. Sobald sein Puffer
+        // voll ist, wird er getrennt, ohne die anderen aufzuhalten. Liest er danach weiter und
+        // setzt mit Last-Event-ID fort, erhält er jedes Ereignis genau einmal.
+        @Test
+        void shouldDisconnectASlowSubscriberThatCanResumeWithLastEventId() throws Exception {
+                EventCollector slow = subscribe("sarah1", "abc123", null, true);
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == 1);
+
+                jdbcTemplate.update("""
+                                INSERT INTO cash_card_event (type, cash_card_id, amount, owner, version)
+                                SELECT 'UPDATED', 99, 123.45, 'sarah1', x FROM SYSTEM_RANGE(1, ?)
+                                """, OVERFLOW_EVENTS);
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == 0);
+
+                slow.resume();
+                awaitTrue(() -> slow.completed);
+                assertThat(slow.events).hasSizeLessThan(OVERFLOW_EVENTS);
+
+                EventCollector resumed = subscribe("sarah1", "abc123", slow.lastEventId, false);
+                awaitTrue(() -> slow.events.size() + resumed.events.size() == OVERFLOW_EVENTS);
+                assertThat(Stream.concat(slow.events.stream(), resumed.events.stream()).map(ReceivedEvent::seq).toList())
+                                .isSorted()
+                                .doesNotHaveDuplicates()
+                                .hasSize(OVERFLOW_EVENTS);
+        }
+
+        // Dies ist ein Test für eine Transaktion, die länger als gap-timeout dauert. Das
+        // folgende Ereignis wird nach gap-timeout verteilt, ihr eigenes danach nachgeliefert,
+        // ohne Event-ID, damit die Last-Event-ID des Clients nicht zurückspringt.
+        @Test
+        void shouldDeliverAnEventThatIsCommittedAfterTheGapTimeout() throws Exception {
+                EventCollector collector = subscribe("sarah1", "abc123", null, false);
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == 1);
+                long late = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) + 1 FROM cash_card_event", Long.class);
+
+                insertEvent(late + 1);
+                awaitTrue(() -> collector.events.size() == 1);
+                insertEvent(late);
+                awaitTrue(() -> collector.events.size() == 2);
+
+                assertThat(collector.events).extracting(ReceivedEvent::seq).containsExactly(late + 1, late);
+                assertThat(collector.lastEventId).isEqualTo(late + 1);
+        }
+
+        // Dies ist ein Test für zwei Lücken, etwa von zurückgerollten Transaktionen, die der
+        // Poller gleichzeitig sieht. Sie werden gemeinsam abgewartet und nicht nacheinander;
+        // beide folgenden Ereignisse kommen also nach einem gap-timeout kurz nacheinander an.
+        @Test
+        void shouldWaitOutGapsThatAreSeenTogetherOnlyOnce() throws Exception {
+                EventCollector collector = subscribe("sarah1", "abc123", null, false);
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == 1);
+                long rolledBack = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) + 1 FROM cash_card_event", Long.class);
+
+                jdbcTemplate.batchUpdate("""
+                                INSERT INTO cash_card_event (seq, type, cash_card_id, amount, owner, version)
+                                VALUES (?, 'UPDATED', 99, 123.45, 'sarah1', ?)
+                                """, List.of(new Object[] {rolledBack + 1, 1}, new Object[] {rolledBack + 3, 2}));
+                awaitTrue(() -> collector.events.size() == 2);
+
+                assertThat(collector.events).extracting(ReceivedEvent::seq).containsExactly(rolledBack + 1, rolledBack + 3);
+                long apart = collector.events.get(1).receivedAt() - collector.events.get(0).receivedAt();
+                assertThat(TimeUnit.NANOSECONDS.toMillis(apart)).isLessThan(100);
+        }
+
+        // Ein Abonnent ohne Ereignisse erhält regelmäßig einen SSE-Kommentar
+        @Test
+        void shouldSendHeartbeatsToAnIdleSubscriber() throws Exception {
+                EventCollector collector = subscribe("sarah1", "abc123", null, false);
+                awaitTrue(() -> collector.heartbeats >= 3);
+
+                assertThat(collector.events).isEmpty();
+                assertThat(collector.completed).isFalse();
+        }
+
+        // Dies ist ein Test für das Fortsetzen des Feeds. Mit Last-Event-ID 0 werden alle
+        // bisherigen Ereignisse nachgeliefert, danach die neuen.
+        @Test
+        void shouldResumeFromASequenceNumber() throws Exception {
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards", new CashCard(null, new BigDecimal("7.00"), null), Void.class);
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+
+                EventCollector collector = subscribe("sarah1", "abc123", 0L, false);
+                awaitTrue(() -> collector.events.size() == 2);
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                awaitTrue(() -> collector.events.size() == 3);
+
+                assertThat(collector.events).extracting(ReceivedEvent::type).containsExactly("CREATED", "UPDATED", "UPDATED");
+                assertThat(collector.events).extracting(ReceivedEvent::seq).isSorted().doesNotHaveDuplicates();
+        }
+
+        // Ein Abonnent erhält nur die Ereignisse seiner eigenen CashCards
+        @Test
+        void shouldOnlyDeliverEventsOfTheOwner() throws Exception {
+                EventCollector kumar = subscribe("kumar2", "xyz789", null, false);
+                awaitTrue(() -> cashCardEventFeed.subscriberCount() == 1);
+
+                restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards/99/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                restTemplate
+                                .withBasicAuth("kumar2", "xyz789")
+                                .postForEntity("/cashcards/102/credit", new CashCardAdjustment(BigDecimal.ONE), Void.class);
+                awaitTrue(() -> kumar.events.size() == 1);
+                Thread.sleep(200);
+
+                assertThat(kumar.events).extracting(ReceivedEvent::id).containsExactly(102L);
+        }
+
+        // Eine Transaktion mit vorgegebener Sequenznummer; eine kleinere fehlt dann zunächst
+        private void insertEvent(long seq) {
+                jdbcTemplate.update("""
+                                INSERT INTO cash_card_event (seq, type, cash_card_id, amount, owner, version)
+                                VALUES (?, 'UPDATED', 99, 123.45, 'sarah1', ?)
+                                """, seq, seq);
+        }
+
+        // Mit paused liest der Client nichts, bis resume aufgerufen wird
+        private EventCollector subscribe(String username, String password, Long lastEventId, boolean paused) {
+                String credentials = Base64.getEncoder()
+                                .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+                HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/cashcards/events"))
+                                .header("Authorization", "Basic " + credentials)
+                                .header("Accept", "text/event-stream");
+                if (lastEventId != null) {
+                        request.header("Last-Event-ID", lastEventId.toString());
+                }
+                EventCollector collector = new EventCollector(paused);
+                httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.fromLineSubscriber(collector));
+                return collector;
+        }
+
+        private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                while (!condition.getAsBoolean()) {
+                        assertThat(System.nanoTime()).as("timed out").isLessThan(end);
+                        Thread.sleep(10);
+                }
+        }
+
+        private record ReceivedEvent(long seq, String type, long id, long version, long receivedAt) {
+        }
+
+        // Liest die Zeilen eines SSE-Streams (id:, event:, data: und Kommentare) und merkt sich jedes Ereignis.
+        // Die Sequenznummer steht auch in data, da nachgelieferte Ereignisse keine id haben.
+        private static class EventCollector implements Flow.Subscriber<String> {
+                private final List<ReceivedEvent> events = new CopyOnWriteArrayList<>();
+                private final boolean paused;
+                private volatile Flow.Subscription subscription;
+                private volatile Long lastEventId;
+                private volatile boolean completed;
+                private volatile int heartbeats;
+                private String type;
+
+                EventCollector(boolean paused) {
+                        this.paused = paused;
+                }
+
+                void resume() {
+                        subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        if (!paused) {
+                                subscription.request(Long.MAX_VALUE);
+                        }
+                }
+
+                @Override
+                public void onNext(String line) {
+                        if (line.startsWith(":")) {
+                                heartbeats++;
+                        } else if (line.startsWith("id:")) {
+                                lastEventId = Long.parseLong(line.substring(3).trim());
+                        } else if (line.startsWith("event:")) {
+                                type = line.substring(6).trim();
+                        } else if (line.startsWith("data:")) {
+                                DocumentContext data = JsonPath.parse(line.substring(5));
+                                Number seq = data.read("$.seq");
+                                Number id = data.read("$.id");
+                                Number version = data.read("$.version");
+                                events.add(new ReceivedEvent(seq.longValue(), type, id.longValue(), version.longValue(),
+                                                System.nanoTime()));
+                        }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                        completed = true;
+                }
+
+                @Override
+                public void onComplete() {
+                        completed = true;
+                }
+        }
+}
@@ -0,0 +1,143 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardExportTests testet den NDJSON-Export. Da hier viele CashCards
+//angelegt werden, bekommt die Klasse einen eigenen Anwendungskontext.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = "cashcard.export.flush-interval=100")
+@DirtiesContext
+class CashCardExportTests {
+        private static final int ROWS = 20_000;
+        private static final int LARGE_ROWS = 300_000;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        CashCardBulkWriter cashCardBulkWriter;
+
+        @Autowired
+        CashCardExporter cashCardExporter;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        // Dies ist ein Test für den Export-Endpunkt. Jede CashCard muss als eigene
+        // Zeile im NDJSON-Format geliefert werden.
+        @Test
+        void shouldExportAllCashCardsAsNdjson() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/export", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(response.getHeaders().getContentType().toString()).startsWith("application/x-ndjson");
+                assertThat(response.getBody().lines()).anyMatch(line -> line.contains("\"id\":99"));
+                assertThat(response.getBody().lines()).allMatch(line -> line.startsWith("{"));
+        }
+
+        // Dies ist ein Test für den begrenzten Speicherbedarf des Exports. Es werden
+        // 20.000 CashCards exportiert. Zwischen zwei Flushes darf der Exporter nur
+        // etwa flush-interval Zeilen puffern, unabhängig von der Anzahl der Zeilen.
+        @Test
+        void shouldExportWithBoundedBuffering() throws IOException {
+                List<CashCard> cashCards = new ArrayList<>(ROWS);
+                for (int i = 0; i < ROWS; i++) {
+                        cashCards.add(new CashCard(null, new BigDecimal("1.00"), "sarah1"));
+                }
+                cashCardBulkWriter.write(cashCards, "sarah1");
+
+                FlushTrackingOutputStream outputStream = new FlushTrackingOutputStream();
+                cashCardExporter.export("sarah1", outputStream);
+
+                assertThat(outputStream.lines).isGreaterThanOrEqualTo(ROWS);
+                assertThat(outputStream.flushes).isGreaterThanOrEqualTo(ROWS / 100);
+                // 100 Zeilen zu je höchstens etwa 60 Bytes
+                assertThat(outputStream.maxBytesBetweenFlushes).isLessThan(100 * 64);
+        }
+
+        // Dies ist ein Test für den begrenzten Speicherbedarf bei einer großen Tabelle.
+        // Nach der Hälfte der Zeilen wird gemessen, wie viel Heap seit dem Start des
+        // Exports belegt ist. Würde das Ergebnis vor der ersten Zeile vollständig
+        // geladen, wären das für 300.000 Zeilen deutlich über 32 MB.
+        @Test
+        void shouldStreamALargeTableWithoutLoadingItIntoMemory() throws IOException {
+                jdbcTemplate.update("INSERT INTO cash_card (AMOUNT, OWNER) SELECT X, 'large1' FROM SYSTEM_RANGE(1, ?)",
+                                LARGE_ROWS);
+                long before = usedHeapAfterGc();
+                HeapMeasuringOutputStream outputStream = new HeapMeasuringOutputStream(LARGE_ROWS / 2);
+                cashCardExporter.export("large1", outputStream);
+
+                assertThat(outputStream.lines).isEqualTo(LARGE_ROWS);
+                assertThat(outputStream.usedHeap - before).isLessThan(32L * 1024 * 1024);
+        }
+
+        private static long usedHeapAfterGc() {
+                System.gc();
+                return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        // Misst den belegten Heap, sobald measureAtLine Zeilen geschrieben sind
+        private static class HeapMeasuringOutputStream extends OutputStream {
+                private final long measureAtLine;
+                long lines;
+                long usedHeap;
+
+                HeapMeasuringOutputStream(long measureAtLine) {
+                        this.measureAtLine = measureAtLine;
+                }
+
+                @Override
+                public void write(int b) {
+                        if (b == '\n' && ++lines == measureAtLine) {
+                                usedHeap = usedHeapAfterGc();
+                        }
+                }
+        }
+
+        // Zählt Zeilen und die größte Datenmenge zwischen zwei Flushes
+        private static class FlushTrackingOutputStream extends OutputStream {
+                long lines;
+                long flushes;
+                long bytesSinceFlush;
+                long maxBytesBetweenFlushes;
+
+                @Override
+                public void write(int b) {
+                        if (b == '\n') {
+                                lines++;
+                        }
+                        bytesSinceFlush++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                        for (int i = off; i < off + len; i++) {
+                                write(b[i]);
+                        }
+                }
+
+                @Override
+                public void flush() {
+                        flushes++;
+                        maxBytesBetweenFlushes = Math.max(maxBytesBetweenFlushes, bytesSinceFlush);
+                        bytesSinceFlush = 0;
+                }
+        }
+}
@@ -0,0 +1,148 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardIdempotencyTests testet das Anlegen von CashCards mit einem
+//Idempotency-Key. Die Schlüssel werden hier zusätzlich in der Tabelle idempotency_key
+//gespeichert (cashcard.idempotency.jdbc.enabled=true) und alle 100 ms aufgeräumt.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.idempotency.jdbc.enabled=true",
+                                "cashcard.idempotency.cleanup-interval=PT0.1S"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardIdempotencyTests {
+        private static final int THREADS = 16;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        // Dies ist ein Test für eine wiederholte Anfrage. Sie erhält dieselbe Location
+        // wie die erste, und es wird nur eine CashCard angelegt.
+        @Test
+        void shouldReturnTheOriginalCashCardForARetriedRequest() {
+                int before = countCashCardsOf("sarah1");
+
+                ResponseEntity<Void> first = create("sarah1", "abc123", "retry-1");
+                ResponseEntity<Void> retry = create("sarah1", "abc123", "retry-1");
+
+                assertThat(first.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(retry.getHeaders().getLocation()).isEqualTo(first.getHeaders().getLocation());
+                assertThat(countCashCardsOf("sarah1")).isEqualTo(before + 1);
+                assertThat(jdbcTemplate.queryForObject(
+                                "SELECT COUNT(*) FROM idempotency_key WHERE owner = 'sarah1' AND idempotency_key = 'retry-1'",
+                                Integer.class)).isEqualTo(1);
+        }
+
+        // Derselbe Schlüssel von zwei Benutzern legt zwei CashCards an
+        @Test
+        void shouldScopeIdempotencyKeysToTheOwner() {
+                ResponseEntity<Void> sarah = create("sarah1", "abc123", "shared-key");
+                ResponseEntity<Void> kumar = create("kumar2", "xyz789", "shared-key");
+
+                assertThat(sarah.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(kumar.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(kumar.getHeaders().getLocation()).isNotEqualTo(sarah.getHeaders().getLocation());
+        }
+
+        @Test
+        void shouldRejectAnInvalidIdempotencyKey() {
+                ResponseEntity<Void> response = create("sarah1", "abc123", "x".repeat(256));
+
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        }
+
+        // Dies ist ein Test für gleichzeitige Anfragen mit demselben Schlüssel. Alle
+        // erhalten 201-CREATED mit derselben Location, es wird genau eine CashCard angelegt.
+        @Test
+        void shouldCollapseConcurrentRequestsWithTheSameKeyIntoOneInsert() throws Exception {
+                int before = countCashCardsOf("sarah1");
+                CountDownLatch start = new CountDownLatch(1);
+                ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+                List<Future<ResponseEntity<Void>>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                        futures.add(executor.submit(() -> {
+                                start.await();
+                                return create("sarah1", "abc123", "concurrent-1");
+                        }));
+                }
+                start.countDown();
+
+                Set<URI> locations = new HashSet<>();
+                for (Future<ResponseEntity<Void>> future : futures) {
+                        ResponseEntity<Void> response = future.get();
+                        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                        locations.add(response.getHeaders().getLocation());
+                }
+                executor.shutdown();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+
+                assertThat(locations).hasSize(1);
+                assertThat(countCashCardsOf("sarah1")).isEqualTo(before + 1);
+        }
+
+        // Dies ist ein Test für das Aufräumen. Ein Schlüssel, der älter als time-to-live
+        // ist, wird vom geplanten deleteExpired gelöscht, ein neuer bleibt erhalten.
+        @Test
+        void shouldDeleteExpiredIdempotencyKeys() throws Exception {
+                create("sarah1", "abc123", "fresh-1");
+                jdbcTemplate.update("""
+                                INSERT INTO idempotency_key (owner, idempotency_key, cash_card_id, created_at)
+                                VALUES ('sarah1', 'expired-1', 99, ?)
+                                """, Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (countIdempotencyKeys("expired-1") > 0) {
+                        assertThat(System.nanoTime()).as("timed out").isLessThan(end);
+                        Thread.sleep(50);
+                }
+                assertThat(countIdempotencyKeys("fresh-1")).isEqualTo(1);
+        }
+
+        private int countIdempotencyKeys(String idempotencyKey) {
+                return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_key WHERE idempotency_key = ?",
+                                Integer.class, idempotencyKey);
+        }
+
+        private ResponseEntity<Void> create(String username, String password, String idempotencyKey) {
+                HttpHeaders headers = new HttpHeaders();
+                headers.set("Idempotency-Key", idempotencyKey);
+                return restTemplate
+                                .withBasicAuth(username, password)
+                                .postForEntity("/cashcards",
+                                                new HttpEntity<>(new CashCard(null, new BigDecimal("42.00"), null), headers),
+                                                Void.class);
+        }
+
+        private int countCashCardsOf(String owner) {
+                return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card WHERE owner = ?", Integer.class, owner);
+        }
+}
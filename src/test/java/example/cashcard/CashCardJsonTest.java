@@ -8,6 +8,7 @@ import org.springframework.boot.test.autoconfigure.json.JsonTest;
 import org.springframework.boot.test.json.JacksonTester;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -31,9 +32,9 @@ class CashCardJsonTest {
         @BeforeEach
         void setUp() {
                 cashCards = Arrays.array(
-                                new CashCard(99L, 123.45, "sarah1"),
-                                new CashCard(100L, 1.00, "sarah1"),
-                                new CashCard(101L, 150.00, "sarah1"));
+                                new CashCard(99L, new BigDecimal("123.45"), "sarah1"),
+                                new CashCard(100L, new BigDecimal("1.00"), "sarah1"),
+                                new CashCard(101L, new BigDecimal("150.00"), "sarah1"));
         }
 
         // Die Methode cashCardListSerializationTest() testet die Serialisierung des
@@ -116,8 +117,8 @@ class CashCardJsonTest {
                                 }
                                 """;
                 assertThat(json.parse(expected))
-                                .isEqualTo(new CashCard(99L, 123.45, "sarah1"));
+                                .isEqualTo(new CashCard(99L, new BigDecimal("123.45"), "sarah1"));
                 assertThat(json.parseObject(expected).id()).isEqualTo(99L);
-                assertThat(json.parseObject(expected).amount()).isEqualTo(123.45);
+                assertThat(json.parseObject(expected).amount()).isEqualTo(new BigDecimal("123.45"));
         }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package example.cashcard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardMetricsTests prüft, dass die Metriken für Endpunkte, Repository,
+//Authentifizierung, Connection-Pool und Cache angelegt und aktualisiert werden.
+//@AutoConfigureObservability aktiviert den Prometheus-Export auch im Test.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureObservability(tracing = false)
+class CashCardMetricsTests {
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        MeterRegistry meterRegistry;
+
+        // Dies ist ein Test für die Metriken einer Anfrage an GET /cashcards/{requestedId}.
+        // Nach der Anfrage müssen die Timer für den Endpunkt, das Repository und die
+        // Authentifizierung mindestens einmal gezählt haben.
+        @Test
+        void shouldRecordMetricsForARequest() throws InterruptedException {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/101", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                // Der Endpunkt-Timer wird erst nach dem Senden der Antwort gestoppt
+                Timer endpointTimer = awaitTimer("http.server.requests", "uri", "/cashcards/{requestedId}");
+                assertThat(endpointTimer.count()).isPositive();
+                assertThat(awaitTimer("spring.data.repository.invocations", "repository", "CashCardRepository").count())
+                                .isPositive();
+                assertThat(awaitTimer("spring.security.authentications", null, null).count()).isPositive();
+                assertThat(meterRegistry.find("hikaricp.connections.acquire").timer()).isNotNull();
+                assertThat(meterRegistry.find("cache.gets").tag("cache", "cashcards").functionCounters()).isNotEmpty();
+        }
+
+        // Dies ist ein Test für den Prometheus-Endpunkt, der für Administratoren die
+        // Histogramme der Endpunkte enthält.
+        @Test
+        void shouldExposeHistogramsForPrometheus() {
+                restTemplate.withBasicAuth("sarah1", "abc123").getForEntity("/cashcards", String.class);
+
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("admin1", "admin123")
+                                .getForEntity("/actuator/prometheus", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                assertThat(response.getBody()).contains("http_server_requests_seconds_bucket");
+        }
+
+        // Ohne Anmeldung oder ohne die Rolle ADMIN sind die Metriken nicht erreichbar
+        @Test
+        void shouldNotExposeMetricsToOtherUsers() {
+                ResponseEntity<String> response = restTemplate.getForEntity("/actuator/prometheus", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/actuator/prometheus", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        }
+
+        private Timer awaitTimer(String name, String tagKey, String tagValue) throws InterruptedException {
+                for (int attempt = 0; attempt < 50; attempt++) {
+                        Timer timer = tagKey == null
+                                        ? meterRegistry.find(name).timer()
+                                        : meterRegistry.find(name).tag(tagKey, tagValue).timer();
+                        if (timer != null && timer.count() > 0) {
+                                return timer;
+                        }
+                        Thread.sleep(20);
+                }
+                throw new AssertionError("No timer " + name + " was recorded");
+        }
+}
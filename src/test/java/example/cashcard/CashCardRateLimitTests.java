@@ -0,0 +1,163 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardRateLimitTests testet das Rate-Limit pro Benutzer und das Abweisen
+//von Anfragen bei Überlast. Das Rate-Limit ist hier sehr klein (20 Anfragen pro Sekunde),
+//damit ein einzelner Benutzer es mit wenigen Threads überschreitet.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.rate-limit.requests-per-second=20", "cashcard.rate-limit.burst=20"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardRateLimitTests {
+        private static final Duration LOAD_DURATION = Duration.ofSeconds(3);
+        private static final int ABUSIVE_THREADS = 4;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        // Dies ist ein Test für eine Anfrage über dem Rate-Limit. Sie wird mit
+        // 429-TOO_MANY_REQUESTS und einem Retry-After-Header beantwortet.
+        @Test
+        void shouldRejectRequestsAboveTheRateLimitWithRetryAfter() {
+                ResponseEntity<String> response = null;
+                for (int i = 0; i < 100 && (response == null || response.getStatusCode() == HttpStatus.OK); i++) {
+                        response = restTemplate
+                                        .withBasicAuth("kumar2", "xyz789")
+                                        .getForEntity("/cashcards/102", String.class);
+                }
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+                // Das Rate-Limit gilt pro Benutzer, sarah1 ist nicht betroffen
+                response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/99", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        }
+
+        // Dies ist ein Lasttest: kumar2 sendet mit mehreren Threads so schnell wie möglich
+        // Anfragen, sarah1 gleichzeitig 10 Anfragen pro Sekunde. kumar2 wird auf das
+        // Rate-Limit gedrosselt, während sarah1 keine Anfrage verliert und ihr p99 niedrig bleibt.
+        @Test
+        void shouldThrottleAnAbusiveClientWithoutHurtingOthers() throws Exception {
+                List<Long> baseline = wellBehavedLatencies();
+
+                AtomicInteger abusiveAccepted = new AtomicInteger();
+                AtomicInteger abusiveRejected = new AtomicInteger();
+                long end = System.nanoTime() + LOAD_DURATION.toNanos();
+                ExecutorService executor = Executors.newFixedThreadPool(ABUSIVE_THREADS);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < ABUSIVE_THREADS; t++) {
+                        futures.add(executor.submit(() -> {
+                                while (System.nanoTime() < end) {
+                                        ResponseEntity<String> response = restTemplate
+                                                        .withBasicAuth("kumar2", "xyz789")
+                                                        .getForEntity("/cashcards/102", String.class);
+                                        if (response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                                                abusiveRejected.incrementAndGet();
+                                        } else {
+                                                abusiveAccepted.incrementAndGet();
+                                        }
+                                }
+                        }));
+                }
+                List<Long> underLoad = wellBehavedLatencies();
+                for (Future<?> future : futures) {
+                        future.get();
+                }
+                executor.shutdown();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+
+                // Höchstens der volle Bucket plus 20 pro Sekunde (mit etwas Spielraum für die Laufzeit)
+                assertThat(abusiveAccepted.get()).isLessThanOrEqualTo(20 + 20 * 2 * (int) LOAD_DURATION.toSeconds());
+                assertThat(abusiveRejected.get()).isPositive();
+                assertThat(p99(underLoad)).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+                System.out.printf("sarah1 p99: %d ms ohne Last, %d ms unter Last; kumar2: %d angenommen, %d abgewiesen%n",
+                                TimeUnit.NANOSECONDS.toMillis(p99(baseline)),
+                                TimeUnit.NANOSECONDS.toMillis(p99(underLoad)),
+                                abusiveAccepted.get(), abusiveRejected.get());
+        }
+
+        // Dies ist ein Test für das Abweisen bei Überlast. Mit nur einem Platz wartet eine
+        // zweite Anfrage höchstens max-queue-time und wird dann mit 503-SERVICE_UNAVAILABLE
+        // und Retry-After abgewiesen.
+        @Test
+        void shouldShedLoadWhenTheQueueTimeIsExceeded() throws Exception {
+                ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(1, Duration.ofMillis(20));
+                CountDownLatch entered = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                Future<?> blocking = executor.submit(() -> {
+                        filter.doFilter(new MockHttpServletRequest("GET", "/cashcards/99"), new MockHttpServletResponse(),
+                                        (request, response) -> {
+                                                entered.countDown();
+                                                try {
+                                                        release.await();
+                                                } catch (InterruptedException e) {
+                                                        Thread.currentThread().interrupt();
+                                                }
+                                        });
+                        return null;
+                });
+                assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+                MockHttpServletResponse shed = new MockHttpServletResponse();
+                filter.doFilter(new MockHttpServletRequest("GET", "/cashcards/99"), shed,
+                                (request, response) -> { });
+                assertThat(shed.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+                assertThat(shed.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+                release.countDown();
+                blocking.get();
+                executor.shutdown();
+
+                MockHttpServletResponse accepted = new MockHttpServletResponse();
+                filter.doFilter(new MockHttpServletRequest("GET", "/cashcards/99"), accepted,
+                                (request, response) -> { });
+                assertThat(accepted.getStatus()).isEqualTo(HttpStatus.OK.value());
+        }
+
+        // sarah1 sendet 10 Anfragen pro Sekunde; alle müssen angenommen werden
+        private List<Long> wellBehavedLatencies() throws InterruptedException {
+                List<Long> latencies = new ArrayList<>();
+                long end = System.nanoTime() + LOAD_DURATION.toNanos();
+                while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        ResponseEntity<String> response = restTemplate
+                                        .withBasicAuth("sarah1", "abc123")
+                                        .getForEntity("/cashcards/99", String.class);
+                        latencies.add(System.nanoTime() - start);
+                        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                        Thread.sleep(100);
+                }
+                return latencies;
+        }
+
+        private static long p99(List<Long> latencies) {
+                List<Long> sorted = new ArrayList<>(latencies);
+                Collections.sort(sorted);
+                return sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+        }
+}
@@ -0,0 +1,103 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.minidev.json.JSONArray;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardReplicaRoutingTests testet das Replikat-Routing mit zwei
+//H2-Datenbanken im Speicher. Die Replikation wird nicht automatisch durchgeführt,
+//sodass jede Änderung an der primären Datenbank wie eine verzögerte Replikation wirkt.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {
+                        "cashcard.replica.enabled=true",
+                        "cashcard.replica.urls=" + CashCardReplicaRoutingTests.REPLICA_URL,
+                        "cashcard.replica.sticky-after-write=1m"})
+@DirtiesContext
+class CashCardReplicaRoutingTests {
+        static final String REPLICA_URL = "jdbc:h2:mem:cashcard-replica;DB_CLOSE_DELAY=-1";
+
+        private static final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        // Schreibt immer in die primäre Datenbank, da es keine lesende Transaktion ist
+        @Autowired
+        JdbcTemplate primary;
+
+        @Autowired
+        MeterRegistry meterRegistry;
+
+        // Das Replikat bekommt dasselbe Schema und dieselben Testdaten wie die primäre Datenbank
+        @BeforeAll
+        static void setUpReplica() {
+                new ResourceDatabasePopulator(
+                                new ClassPathResource("schema.sql"),
+                                new ClassPathResource("data.sql"))
+                                .execute(replica.getDataSource());
+        }
+
+        // Dies ist ein Test für eine verzögerte Replikation. Eine CashCard, die nur in
+        // der primären Datenbank steht, ist beim Lesen vom Replikat noch nicht sichtbar.
+        // Nach der (simulierten) Replikation erscheint sie.
+        @Test
+        void shouldReadFromTheReplicaAndSeeReplicationLag() {
+                String insert = "INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (500, 5.00, 'kumar2')";
+                primary.update(insert);
+
+                assertThat(idsOf("kumar2", "xyz789")).doesNotContain(500);
+
+                replica.update(insert);
+                assertThat(idsOf("kumar2", "xyz789")).contains(500);
+        }
+
+        // Dies ist ein Test für Read-Your-Writes. Nach dem Anlegen einer CashCard liest
+        // derselbe Benutzer von der primären Datenbank und sieht seine neue CashCard,
+        // obwohl sie im Replikat noch fehlt.
+        @Test
+        void shouldReadYourOwnWritesFromThePrimary() {
+                ResponseEntity<Void> createResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards", new CashCard(null, new BigDecimal("42.00"), null), Void.class);
+                assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                URI location = createResponse.getHeaders().getLocation();
+                int id = Integer.parseInt(location.getPath().substring(location.getPath().lastIndexOf('/') + 1));
+
+                assertThat(replica.queryForObject("SELECT COUNT(*) FROM cash_card WHERE id = ?", Integer.class, id))
+                                .isZero();
+                assertThat(idsOf("sarah1", "abc123")).contains(id);
+        }
+
+        // Der Pool des Replikats meldet seine Metriken wie der primäre Pool
+        @Test
+        void shouldReportMetricsOfTheReplicaPool() {
+                idsOf("kumar2", "xyz789");
+
+                assertThat(meterRegistry.find("hikaricp.connections").tag("pool", "replica-0").gauge()).isNotNull();
+        }
+
+        private JSONArray idsOf(String username, String password) {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth(username, password)
+                                .getForEntity("/cashcards", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                return JsonPath.parse(response.getBody()).read("$..id");
+        }
+}
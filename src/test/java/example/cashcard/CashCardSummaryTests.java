@@ -0,0 +1,158 @@
+package example.cashcard;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardSummaryTests testet die Kennzahlen (Summe, Anzahl, Minimum, Maximum)
+//pro Besitzer und über alle Besitzer. Nach vielen gleichzeitigen Änderungen müssen sie
+//mit einer vollständigen Neuberechnung aus cash_card übereinstimmen.
+//Die CashCard 100 ist als häufig genutzte CashCard konfiguriert, damit auch gesammelte
+//Aufbuchungen in die Kennzahlen eingehen.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.balance.hot-cards=100", "cashcard.balance.flush-interval=10"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardSummaryTests {
+        private static final int THREADS = 8;
+        private static final int OPERATIONS_PER_THREAD = 40;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        @Autowired
+        CashCardBalanceAccumulator accumulator;
+
+        // Dies ist ein Test für die Kennzahlen der Testdaten des angemeldeten Benutzers
+        @Test
+        void shouldReturnTheSummaryOfTheOwner() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/summary", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                Number total = documentContext.read("$.total");
+                Number count = documentContext.read("$.count");
+                Number min = documentContext.read("$.min");
+                Number max = documentContext.read("$.max");
+                assertThat(total.doubleValue()).isEqualTo(274.45);
+                assertThat(count.intValue()).isEqualTo(3);
+                assertThat(min.doubleValue()).isEqualTo(1.00);
+                assertThat(max.doubleValue()).isEqualTo(150.00);
+        }
+
+        // Die Kennzahlen über alle Besitzer sind nur für Administratoren sichtbar
+        @Test
+        void shouldOnlyReturnTheOverallSummaryToAdministrators() {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/summary/all", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+                response = restTemplate
+                                .withBasicAuth("admin1", "admin123")
+                                .getForEntity("/cashcards/summary/all", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                DocumentContext documentContext = JsonPath.parse(response.getBody());
+                Number total = documentContext.read("$.total");
+                Number count = documentContext.read("$.count");
+                assertThat(total.doubleValue()).isEqualTo(474.45);
+                assertThat(count.intValue()).isEqualTo(4);
+        }
+
+        // Dies ist ein Test für die Konsistenz der Kennzahlen. Mehrere Threads legen
+        // gleichzeitig CashCards an (einzeln und als Massenimport), buchen auf und ab.
+        // Danach müssen die gepflegten Kennzahlen exakt der Neuberechnung entsprechen.
+        @Test
+        void shouldMatchAFullRecomputeAfterConcurrentWrites() throws Exception {
+                ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                        String[] user = t % 2 == 0 ? new String[] {"sarah1", "abc123"} : new String[] {"kumar2", "xyz789"};
+                        futures.add(executor.submit(() -> {
+                                List<Long> ids = new ArrayList<>(user[0].equals("sarah1") ? List.of(99L, 100L, 101L) : List.of(102L));
+                                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                                        TestRestTemplate client = restTemplate.withBasicAuth(user[0], user[1]);
+                                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                                        BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 5000), 2);
+                                        Long id = ids.get(random.nextInt(ids.size()));
+                                        switch (i % 4) {
+                                                case 0 -> {
+                                                        URI location = client.postForLocation("/cashcards",
+                                                                        new CashCard(null, amount, null));
+                                                        String path = location.getPath();
+                                                        ids.add(Long.valueOf(path.substring(path.lastIndexOf('/') + 1)));
+                                                }
+                                                case 1 -> client.postForEntity("/cashcards/" + id + "/credit",
+                                                                new CashCardAdjustment(amount), Void.class);
+                                                // Eine abgelehnte Abbuchung (409) ändert nichts und ist hier erlaubt
+                                                case 2 -> client.postForEntity("/cashcards/" + id + "/debit",
+                                                                new CashCardAdjustment(amount), Void.class);
+                                                default -> client.postForEntity("/cashcards/bulk",
+                                                                List.of(new CashCard(null, amount, null),
+                                                                                new CashCard(null, amount.add(BigDecimal.ONE), null)),
+                                                                String.class);
+                                        }
+                                }
+                        }));
+                }
+                for (Future<?> future : futures) {
+                        future.get();
+                }
+                executor.shutdown();
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+                accumulator.flush();
+
+                List<Map<String, Object>> recomputed = jdbcTemplate.queryForList("""
+                                SELECT owner, SUM(amount) AS total, COUNT(*) AS card_count,
+                                       MIN(amount) AS min_amount, MAX(amount) AS max_amount
+                                FROM cash_card GROUP BY owner ORDER BY owner
+                                """);
+                List<Map<String, Object>> maintained = jdbcTemplate.queryForList("""
+                                SELECT owner, total, card_count, min_amount, max_amount
+                                FROM cash_card_summary ORDER BY owner
+                                """);
+                assertThat(maintained).hasSameSizeAs(recomputed);
+                for (int i = 0; i < recomputed.size(); i++) {
+                        Map<String, Object> expected = recomputed.get(i);
+                        Map<String, Object> actual = maintained.get(i);
+                        assertThat(actual.get("OWNER")).isEqualTo(expected.get("OWNER"));
+                        assertThat((BigDecimal) actual.get("TOTAL")).isEqualByComparingTo((BigDecimal) expected.get("TOTAL"));
+                        assertThat(((Number) actual.get("CARD_COUNT")).longValue())
+                                        .isEqualTo(((Number) expected.get("CARD_COUNT")).longValue());
+                        assertThat((BigDecimal) actual.get("MIN_AMOUNT")).isEqualByComparingTo((BigDecimal) expected.get("MIN_AMOUNT"));
+                        assertThat((BigDecimal) actual.get("MAX_AMOUNT")).isEqualByComparingTo((BigDecimal) expected.get("MAX_AMOUNT"));
+                }
+
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/summary", String.class);
+                Number total = JsonPath.parse(response.getBody()).read("$.total");
+                BigDecimal expectedTotal = jdbcTemplate.queryForObject(
+                                "SELECT SUM(amount) FROM cash_card WHERE owner = 'sarah1'", BigDecimal.class);
+                assertThat(new BigDecimal(total.toString())).isEqualByComparingTo(expectedTotal);
+        }
+}
@@ -0,0 +1,227 @@
+package example.cashcard;
+
+import org.apache.catalina.connector.Connector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardVirtualThreadTests testet den Modus mit virtuellen Threads
+//(cashcard.virtual-threads.enabled=true). Sie läuft nur unter Java 21 oder neuer, z.B. mit
+//./gradlew virtualThreadTest; dort meldet die JVM jedes Pinning (-Djdk.tracePinnedThreads=full)
+//auf System.out. Die Klasse liest System.out mit, und der Lasttest schlägt fehl, sobald ein
+//Pinning gemeldet wurde. Rate- und Concurrency-Limit sind für den Lasttest abgeschaltet.
+//Mit 5000 Clients braucht die JVM mehr als 20000 offene Dateien (ulimit -n).
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.virtual-threads.enabled=true", "cashcard.rate-limit.enabled=false",
+                                "cashcard.concurrency-limit.enabled=false"})
+@EnabledIf("virtualThreadsAvailable")
+@DirtiesContext
+class CashCardVirtualThreadTests {
+        private static final int CLIENTS = 5000;
+        private static final Duration WARM_UP = Duration.ofSeconds(5);
+        private static final Duration MEASUREMENT = Duration.ofSeconds(20);
+
+        private static PrintStream originalOut;
+        private static final ByteArrayOutputStream capturedOut = new ByteArrayOutputStream();
+
+        @LocalServerPort
+        int port;
+
+        @Autowired
+        ServletWebServerApplicationContext applicationContext;
+
+        @Autowired
+        @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+        AsyncTaskExecutor applicationTaskExecutor;
+
+        static boolean virtualThreadsAvailable() {
+                return Runtime.version().feature() >= 21;
+        }
+
+        // Die JVM schreibt Pinning-Meldungen auf das jeweils aktuelle System.out
+        @BeforeAll
+        static void captureSystemOut() {
+                originalOut = System.out;
+                System.setOut(new PrintStream(new TeeOutputStream(originalOut, capturedOut), true));
+        }
+
+        @AfterAll
+        static void restoreSystemOut() {
+                System.setOut(originalOut);
+        }
+
+        // Tomcat verarbeitet Anfragen auf virtuellen Threads
+        @Test
+        void shouldHandleRequestsOnVirtualThreads() throws Exception {
+                Connector connector = ((TomcatWebServer) applicationContext.getWebServer()).getTomcat().getConnector();
+                Executor executor = connector.getProtocolHandler().getExecutor();
+                CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+                executor.execute(() -> virtual.complete(isVirtual(Thread.currentThread())));
+                assertThat(virtual.get(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        // Asynchrone Anfragen (z.B. der NDJSON-Export) laufen ebenfalls auf virtuellen Threads
+        @Test
+        void shouldRunAsyncTasksOnVirtualThreads() throws Exception {
+                assertThat(applicationTaskExecutor.submit(() -> isVirtual(Thread.currentThread())).get(5, TimeUnit.SECONDS))
+                                .isTrue();
+        }
+
+        // Dies ist ein Lasttest, der beide Modi vergleicht: 5000 Clients senden je ohne Pause
+        // eine Anfrage nach der anderen an GET /cashcards, das bei jeder Anfrage die Datenbank
+        // liest. Das sind weit mehr als der Standard-Pool von Tomcat (200 Threads) und der
+        // Connection-Pool (20 Verbindungen). Gemessen werden Anfragen pro Sekunde und p99,
+        // zuerst mit Plattform-Threads in einer zweiten Anwendung, dann mit virtuellen
+        // Threads. Mit virtuellen Threads muss jede Anfrage erfolgreich sein, und die JVM
+        // darf dabei kein Pinning melden.
+        @Test
+        void shouldCompareBothModesUnderLoadWithoutPinning() throws Exception {
+                LoadResult platform;
+                try (ServletWebServerApplicationContext platformContext = (ServletWebServerApplicationContext)
+                                new SpringApplicationBuilder(CashCardApplication.class)
+                                                .properties("server.port=0", "cashcard.virtual-threads.enabled=false",
+                                                                "cashcard.rate-limit.enabled=false",
+                                                                "cashcard.concurrency-limit.enabled=false")
+                                                .run()) {
+                        platform = measure(platformContext.getWebServer().getPort());
+                }
+                capturedOut.reset();
+                LoadResult virtual = measure(port);
+
+                System.out.printf("Plattform-Threads: %s%nVirtuelle Threads: %s%n", platform, virtual);
+                assertThat(virtual.failures()).isZero();
+                assertThat(capturedOut.toString(StandardCharsets.UTF_8))
+                                .as("Pinning gemeldet")
+                                .doesNotContainPattern("VirtualThread\\[#\\d+[^\\n]*/runnable@");
+        }
+
+        // Eine Aufwärmphase, deren Ergebnis verworfen wird, dann die Messung
+        private static LoadResult measure(int port) throws Exception {
+                run(port, WARM_UP);
+                return run(port, MEASUREMENT);
+        }
+
+        private static LoadResult run(int port, Duration duration) throws Exception {
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                String credentials = Base64.getEncoder()
+                                .encodeToString("sarah1:abc123".getBytes(StandardCharsets.UTF_8));
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/cashcards?size=1"))
+                                .header("Authorization", "Basic " + credentials)
+                                .timeout(Duration.ofSeconds(30))
+                                .build();
+
+                List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+                AtomicInteger failures = new AtomicInteger();
+                long start = System.nanoTime();
+                long end = start + duration.toNanos();
+                List<CompletableFuture<Void>> clients = new ArrayList<>(CLIENTS);
+                for (int i = 0; i < CLIENTS; i++) {
+                        clients.add(sendUntil(client, request, end, latencies, failures));
+                }
+                CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new))
+                                .get(duration.toSeconds() + 60, TimeUnit.SECONDS);
+                long elapsed = System.nanoTime() - start;
+
+                List<Long> sorted = new ArrayList<>(latencies);
+                Collections.sort(sorted);
+                long p99 = sorted.isEmpty() ? 0 : sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+                return new LoadResult(sorted.size() / (elapsed / 1_000_000_000.0),
+                                TimeUnit.NANOSECONDS.toMillis(p99), failures.get());
+        }
+
+        // Ein Client: sendet die nächste Anfrage, sobald die Antwort da ist, bis end erreicht ist
+        private static CompletableFuture<Void> sendUntil(HttpClient client, HttpRequest request, long end,
+                                                         List<Long> latencies, AtomicInteger failures) {
+                if (System.nanoTime() >= end) {
+                        return CompletableFuture.completedFuture(null);
+                }
+                long sent = System.nanoTime();
+                return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                                .handle((response, error) -> {
+                                        if (error == null && response.statusCode() == 200) {
+                                                latencies.add(System.nanoTime() - sent);
+                                        } else {
+                                                failures.incrementAndGet();
+                                        }
+                                        return null;
+                                })
+                                .thenCompose(ignored -> sendUntil(client, request, end, latencies, failures));
+        }
+
+        // Thread.isVirtual gibt es erst ab Java 21; das Projekt wird standardmäßig mit Java 17 gebaut
+        private static boolean isVirtual(Thread thread) {
+                try {
+                        return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+                } catch (ReflectiveOperationException e) {
+                        return false;
+                }
+        }
+
+        private record LoadResult(double requestsPerSecond, long p99Millis, int failures) {
+
+                @Override
+                public String toString() {
+                        return String.format("%.0f Anfragen/s, p99 %d ms, %d Fehler", requestsPerSecond, p99Millis, failures);
+                }
+        }
+
+        // Schreibt in beide Streams, damit die Ausgabe im Testbericht erhalten bleibt
+        private static class TeeOutputStream extends OutputStream {
+                private final OutputStream first;
+                private final OutputStream second;
+
+                TeeOutputStream(OutputStream first, OutputStream second) {
+                        this.first = first;
+                        this.second = second;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                        first.write(b);
+                        second.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                        first.write(b, off, len);
+                        second.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                        first.flush();
+                }
+        }
+}
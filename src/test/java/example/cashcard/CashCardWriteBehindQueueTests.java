@@ -0,0 +1,216 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Die Klasse CashCardWriteBehindQueueTests testet die Warteschlange des Write-Behind-Modus.
+//Ein GatedJdbcTemplate hält das Schreiben nach cash_card an, bis der Test es freigibt,
+//und kann vorübergehende Fehler der Datenbank vortäuschen. Vor jedem Start enthält das
+//Journal nur eine abgebrochene Zeile, wie nach einem Absturz während des Schreibens.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.write-behind.enabled=true", "cashcard.write-behind.queue-capacity=3",
+                                "cashcard.write-behind.id-block-size=1"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardWriteBehindQueueTests {
+        private static Path directory;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        ConfigurableApplicationContext applicationContext;
+
+        @DynamicPropertySource
+        static void files(DynamicPropertyRegistry registry) throws IOException {
+                if (directory == null) {
+                        directory = Files.createTempDirectory("cashcard-write-behind");
+                }
+                // Länger als ein neuer Eintrag, damit Reste davon auffallen würden
+                Files.writeString(directory.resolve("journal"), "{\"id\":4999,\"amount\":" + "1".repeat(200));
+                registry.add("cashcard.write-behind.journal", () -> directory.resolve("journal").toString());
+                registry.add("cashcard.write-behind.dead-letter", () -> directory.resolve("dead-letter").toString());
+        }
+
+        @BeforeEach
+        void closeGate() {
+                GatedJdbcTemplate.gate = new CountDownLatch(1);
+                GatedJdbcTemplate.failures.set(0);
+                GatedJdbcTemplate.sequenceFailures.set(0);
+                GatedJdbcTemplate.writtenRows.set(0);
+        }
+
+        // Dies ist ein Test für eine volle Warteschlange. Solange die Datenbank nicht
+        // schreibt, werden genau queue-capacity CashCards angenommen; die nächste wird mit
+        // 503 und Retry-After abgewiesen. Danach ist wieder Platz.
+        @Test
+        void shouldAnswer503WhenTheQueueIsFull() throws InterruptedException {
+                for (int i = 0; i < 3; i++) {
+                        assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+                }
+
+                ResponseEntity<Void> rejected = create();
+                assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                assertThat(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+
+                GatedJdbcTemplate.gate.countDown();
+                awaitTrue(() -> GatedJdbcTemplate.writtenRows.get() == 3);
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        }
+
+        // Dies ist ein Test für einen vorübergehenden Fehler. Lässt sich keine Transaktion
+        // starten, stirbt der Writer-Thread nicht, sondern versucht es erneut; die CashCard
+        // landet in cash_card und nicht in der Dead-Letter-Datei.
+        @Test
+        void shouldRetryAfterATransientFailure() throws InterruptedException {
+                GatedJdbcTemplate.failures.set(1);
+                GatedJdbcTemplate.gate.countDown();
+
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+                awaitTrue(() -> GatedJdbcTemplate.writtenRows.get() == 1);
+                assertThat(GatedJdbcTemplate.failures.get()).isZero();
+                assertThat(directory.resolve("dead-letter")).doesNotExist();
+        }
+
+        // Dies ist ein Test für eine ID, die sich nicht vergeben lässt. Die Anfrage schlägt
+        // fehl, belegt aber keinen Platz in der Warteschlange; auch nach mehr Fehlern als
+        // queue-capacity wird die nächste CashCard angenommen.
+        @Test
+        void shouldNotLoseQueueCapacityWhenNoIdCanBeAllocated() {
+                GatedJdbcTemplate.gate.countDown();
+                GatedJdbcTemplate.sequenceFailures.set(4);
+
+                for (int i = 0; i < 4; i++) {
+                        assertThat(create().getStatusCode().isError()).isTrue();
+                }
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        }
+
+        // Dies ist ein Test für ein Journal, das nur eine abgebrochene Zeile enthielt (siehe
+        // files). Es wurde beim Start geleert; ein neuer Eintrag steht danach allein darin.
+        @Test
+        void shouldStartWithAnEmptyJournalAfterATornLine() throws IOException {
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+                assertThat(Files.readAllLines(directory.resolve("journal")))
+                                .singleElement()
+                                .satisfies(line -> assertThat(line).startsWith("{\"id\":").endsWith("}"));
+                GatedJdbcTemplate.gate.countDown();
+        }
+
+        // Dies ist ein Test für das Beenden. Das Schließen des Kontexts wartet, bis alle
+        // angenommenen CashCards geschrieben sind, und leert danach das Journal.
+        @Test
+        void shouldWriteEveryAcceptedCashCardBeforeShuttingDown() throws Exception {
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+                assertThat(create().getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+                Thread opener = new Thread(() -> {
+                        try {
+                                Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                        GatedJdbcTemplate.gate.countDown();
+                });
+                opener.start();
+                applicationContext.close();
+                opener.join();
+
+                assertThat(GatedJdbcTemplate.writtenRows.get()).isEqualTo(2);
+                assertThat(Files.size(directory.resolve("journal"))).isZero();
+        }
+
+        private ResponseEntity<Void> create() {
+                return restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards", new CashCard(null, new BigDecimal("42.00"), null), Void.class);
+        }
+
+        private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (!condition.getAsBoolean()) {
+                        assertThat(System.nanoTime()).as("timed out").isLessThan(end);
+                        Thread.sleep(10);
+                }
+        }
+
+        @TestConfiguration
+        static class GatedJdbcTemplateConfiguration {
+
+                @Bean
+                JdbcTemplate jdbcTemplate(DataSource dataSource) {
+                        return new GatedJdbcTemplate(dataSource);
+                }
+        }
+
+        // Hält jedes Schreiben des Write-Behind-Modus an, bis gate offen ist; solange
+        // failures größer als 0 ist, schlägt es vorher mit einem vorübergehenden Fehler fehl.
+        // Solange sequenceFailures größer als 0 ist, schlägt das Vergeben von IDs fehl.
+        static class GatedJdbcTemplate extends JdbcTemplate {
+                // Beim Start offen, damit ein übrig gebliebenes Journal geschrieben werden kann
+                static volatile CountDownLatch gate = new CountDownLatch(0);
+                static final AtomicInteger failures = new AtomicInteger();
+                static final AtomicInteger sequenceFailures = new AtomicInteger();
+                static final AtomicInteger writtenRows = new AtomicInteger();
+
+                GatedJdbcTemplate(DataSource dataSource) {
+                        super(dataSource);
+                }
+
+                @Override
+                public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+                        if (sql.contains("cash_card_id_seq")
+                                        && sequenceFailures.getAndUpdate(remaining -> Math.max(remaining - 1, 0)) > 0) {
+                                throw new CannotGetJdbcConnectionException("Simulated connection failure");
+                        }
+                        return super.queryForList(sql, elementType, args);
+                }
+
+                @Override
+                public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                        if (!sql.contains("INSERT INTO cash_card (ID, AMOUNT, OWNER)")) {
+                                return super.batchUpdate(sql, batchArgs);
+                        }
+                        if (failures.getAndUpdate(remaining -> Math.max(remaining - 1, 0)) > 0) {
+                                throw new CannotCreateTransactionException("Simulated connection failure");
+                        }
+                        try {
+                                gate.await();
+                        } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                        }
+                        int[] counts = super.batchUpdate(sql, batchArgs);
+                        writtenRows.addAndGet(batchArgs.size());
+                        return counts;
+                }
+        }
+}
@@ -0,0 +1,148 @@
+package example.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+//Die Klasse CashCardWriteBehindTests testet den Write-Behind-Modus. Vor dem Start liegt
+//ein Journal mit zwei CashCards und einer abgebrochenen Zeile bereit, wie nach einem
+//Absturz (kill -9) mitten im Schreiben. Die beiden vollständigen Einträge müssen beim
+//Start in die Datenbank geschrieben werden. Ein dritter Eintrag hat einen Betrag, den die
+//Datenbank ablehnt (aus einer Version ohne Prüfung); er gehört in die Dead-Letter-Datei.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+                properties = {"cashcard.write-behind.enabled=true", "cashcard.write-behind.batch-size=10"})
+@DirtiesContext
+class CashCardWriteBehindTests {
+        private static Path journal;
+        private static Path deadLetter;
+
+        @Autowired
+        TestRestTemplate restTemplate;
+
+        @Autowired
+        JdbcTemplate jdbcTemplate;
+
+        @DynamicPropertySource
+        static void journal(DynamicPropertyRegistry registry) throws IOException {
+                journal = Files.createTempFile("cashcard-write-behind", ".journal");
+                Files.writeString(journal, """
+                                {"id":5000,"amount":10.00,"owner":"sarah1"}
+                                {"id":5001,"amount":20.00,"owner":"kumar2"}
+                                {"id":5003,"amount":100000000000000000000.00,"owner":"sarah1"}
+                                {"id":5002,"amou""", StandardCharsets.UTF_8);
+                deadLetter = journal.resolveSibling(journal.getFileName() + ".dead-letter");
+                registry.add("cashcard.write-behind.journal", journal::toString);
+                registry.add("cashcard.write-behind.dead-letter", deadLetter::toString);
+        }
+
+        // Dies ist ein Test für die Wiederherstellung nach einem Absturz. Die vollständigen
+        // Einträge des Journals stehen nach dem Start in cash_card und in den Kennzahlen,
+        // die abgebrochene Zeile wurde übersprungen und das Journal geleert.
+        @Test
+        void shouldReplayTheJournalOnStartup() throws IOException {
+                ResponseEntity<String> response = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .getForEntity("/cashcards/5000", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+                response = restTemplate
+                                .withBasicAuth("kumar2", "xyz789")
+                                .getForEntity("/cashcards/5001", String.class);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+                assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card WHERE id = 5002", Integer.class))
+                                .isZero();
+                assertThat(jdbcTemplate.queryForObject(
+                                "SELECT card_count FROM cash_card_summary WHERE owner = 'kumar2'", Integer.class))
+                                .isEqualTo(2);
+        }
+
+        // Dies ist ein Test für eine neue CashCard im Write-Behind-Modus. Die Antwort ist
+        // 202-ACCEPTED mit der künftigen Location; kurz danach ist die CashCard lesbar.
+        // Ihre ID liegt hinter den IDs aus dem Journal.
+        @Test
+        void shouldAcceptANewCashCardAndWriteItInTheBackground() throws InterruptedException {
+                ResponseEntity<Void> createResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards", new CashCard(null, new BigDecimal("42.00"), null), Void.class);
+                assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+                URI location = createResponse.getHeaders().getLocation();
+                long id = Long.parseLong(location.getPath().substring(location.getPath().lastIndexOf('/') + 1));
+                assertThat(id).isGreaterThan(5001);
+
+                HttpStatus status = HttpStatus.NOT_FOUND;
+                for (int i = 0; i < 50 && status != HttpStatus.OK; i++) {
+                        Thread.sleep(100);
+                        status = HttpStatus.valueOf(restTemplate
+                                        .withBasicAuth("sarah1", "abc123")
+                                        .getForEntity(location, String.class)
+                                        .getStatusCode()
+                                        .value());
+                }
+                assertThat(status).isEqualTo(HttpStatus.OK);
+        }
+
+        // Dies ist ein Test für einen Eintrag, den die Datenbank endgültig ablehnt. Er
+        // blockiert weder den Start noch die übrigen Einträge und steht danach nur in der
+        // Dead-Letter-Datei.
+        @Test
+        void shouldMoveARejectedJournalEntryToTheDeadLetterFile() throws IOException {
+                assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card WHERE id = 5003", Integer.class))
+                                .isZero();
+                assertThat(Files.readAllLines(deadLetter, StandardCharsets.UTF_8))
+                                .singleElement()
+                                .satisfies(line -> assertThat(line).contains("\"id\":5003"));
+        }
+
+        // Ohne Betrag wird eine CashCard gar nicht erst angenommen
+        @Test
+        void shouldRejectACashCardWithoutAmount() {
+                ResponseEntity<Void> createResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards", new CashCard(null, null, null), Void.class);
+                assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        }
+
+        // Ein Betrag, der nicht in NUMERIC(19, 2) passt, wird ebenfalls abgelehnt, statt
+        // mit 202 angenommen und später von der Datenbank zurückgewiesen zu werden
+        @Test
+        void shouldRejectACashCardWithAnAmountTooLargeForTheDatabase() {
+                ResponseEntity<Void> createResponse = restTemplate
+                                .withBasicAuth("sarah1", "abc123")
+                                .postForEntity("/cashcards",
+                                                new CashCard(null, new BigDecimal("100000000000000000.00"), null), Void.class);
+                assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        }
+
+        // Idempotency-Keys in der Datenbank können eine CashCard im Journal nicht zurückrollen;
+        // eine Anwendung mit beiden startet deshalb nicht
+        @Test
+        void shouldNotStartTogetherWithJdbcIdempotencyKeys() {
+                SpringApplicationBuilder application = new SpringApplicationBuilder(CashCardApplication.class)
+                                .properties("server.port=0", "cashcard.write-behind.enabled=true",
+                                                "cashcard.idempotency.jdbc.enabled=true",
+                                                "cashcard.write-behind.journal=" + journal,
+                                                "cashcard.write-behind.dead-letter=" + deadLetter);
+                assertThatThrownBy(() -> application.run())
+                                .hasRootCauseInstanceOf(IllegalStateException.class)
+                                .rootCause()
+                                .hasMessageContaining("cashcard.idempotency.jdbc.enabled");
+        }
+}
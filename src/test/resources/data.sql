@@ -1,3 +1,9 @@
 INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (99, 123.45, 'sarah1');
 INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (100, 1.00, 'sarah1');
-INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (101, 150.00, 'sarah1');
\ No newline at end of file
+INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (101, 150.00, 'sarah1');
+INSERT INTO CASH_CARD(ID, AMOUNT, OWNER) VALUES (102, 200.00, 'kumar2');
+INSERT INTO CASH_CARD_SUMMARY(OWNER, TOTAL, CARD_COUNT, MIN_AMOUNT, MAX_AMOUNT)
+SELECT OWNER, SUM(AMOUNT), COUNT(*), MIN(AMOUNT), MAX(AMOUNT) FROM CASH_CARD GROUP BY OWNER;
+-- Die IDs oben werden explizit vergeben und verschieben die Sequenz nicht; neue CashCards
+-- erhalten sonst nach einigen Anlagen die ID 99 und scheitern am Primärschlüssel
+ALTER SEQUENCE cash_card_id_seq RESTART WITH 1000;
@@ -0,0 +1,43 @@
+#!/bin/sh
+# Misst die Zeit bis zur ersten erfolgreichen Anfrage und den Speicherverbrauch (RSS)
+# von CashCardApplication auf der JVM, auf der JVM mit CDS-Archiv und als Native Image.
+# Das Native Image wird nur gemessen, wenn es vorher mit ./gradlew nativeCompile gebaut wurde.
+set -e
+
+PORT=8090
+APP="$(pwd)/build/cds/app"
+ARCHIVE="$(pwd)/build/cds/cashcard.jsa"
+NATIVE="$(pwd)/build/native/nativeCompile/cashcard"
+MAIN=example.cashcard.CashCardApplication
+
+./gradlew -q cdsArchive
+
+# Derselbe Classpath wie beim Erzeugen des CDS-Archivs (siehe cdsArchive in build.gradle)
+CLASSPATH="$APP/cashcard.jar"
+for jar in $(sed -e 's/^- "//' -e 's/"$//' "$APP/BOOT-INF/classpath.idx"); do
+    CLASSPATH="$CLASSPATH:$APP/$jar"
+done
+
+measure() {
+    name=$1
+    shift
+    start=$(date +%s%N)
+    "$@" --server.port=$PORT > /dev/null 2>&1 &
+    pid=$!
+    until curl -sf -u sarah1:abc123 "http://localhost:$PORT/cashcards" > /dev/null; do
+        sleep 0.01
+    done
+    end=$(date +%s%N)
+    rss=$(awk '/VmRSS/ { print $2 }' "/proc/$pid/status")
+    kill $pid
+    wait $pid 2> /dev/null || true
+    echo "$name: erste Anfrage nach $(( (end - start) / 1000000 )) ms, RSS $(( rss / 1024 )) MB"
+}
+
+measure "JVM" java -cp "$CLASSPATH" $MAIN
+measure "JVM+CDS" java -XX:SharedArchiveFile="$ARCHIVE" -cp "$CLASSPATH" $MAIN
+if [ -x "$NATIVE" ]; then
+    measure "Native" "$NATIVE"
+else
+    echo "Native: übersprungen, zuerst ./gradlew nativeCompile ausführen"
+fi
@@ -0,0 +1,54 @@
+#!/bin/sh
+# Prüft, dass im Write-Behind-Modus jede mit 202 angenommene CashCard einen Absturz
+# übersteht: Die Anwendung wird während eines Schreib-Bursts mit kill -9 beendet und
+# neu gestartet. Danach muss jede angenommene CashCard lesbar sein.
+# Die Datenbank liegt dafür in einer Datei; WRITE_DELAY=0 schreibt jeden Commit sofort.
+set -e
+
+PORT=8090
+WORK="$(pwd)/build/write-behind-crash-test"
+REQUESTS=${REQUESTS:-2000}
+
+./gradlew -q bootJar
+rm -rf "$WORK"
+mkdir -p "$WORK"
+JAR=$(ls build/libs/*.jar | grep -v plain | head -n 1)
+
+start() {
+    java -jar "$JAR" --server.port=$PORT \
+        --cashcard.write-behind.enabled=true \
+        --cashcard.write-behind.journal="$WORK/journal" \
+        --cashcard.rate-limit.enabled=false \
+        --spring.datasource.url="jdbc:h2:file:$WORK/db;WRITE_DELAY=0" \
+        "$@" > "$WORK/app.log" 2>&1 &
+    pid=$!
+    until curl -sf -u sarah1:abc123 "http://localhost:$PORT/cashcards/summary" > /dev/null; do
+        sleep 0.1
+    done
+}
+
+# Eine Datenbank in einer Datei gilt nicht als eingebettet, das Schema wird daher ausdrücklich angelegt
+start --spring.sql.init.mode=always
+# Schreib-Burst mit 8 parallelen Clients; die IDs der angenommenen CashCards werden gemerkt
+seq "$REQUESTS" | xargs -P 8 -I {} curl -s -o /dev/null -D - -u sarah1:abc123 \
+    -H 'Content-Type: application/json' -d '{"amount": 1.00}' \
+    "http://localhost:$PORT/cashcards" 2> /dev/null \
+    | awk -F/ 'tolower($0) ~ /^location:/ { sub(/\r$/, "", $NF); print $NF }' > "$WORK/accepted" &
+burst=$!
+sleep 2
+kill -9 $pid
+wait $burst 2> /dev/null || true
+echo "Angenommen vor kill -9: $(wc -l < "$WORK/accepted")"
+
+# Das Schema existiert bereits in der Datei
+start --spring.sql.init.mode=never
+missing=0
+for id in $(cat "$WORK/accepted"); do
+    if ! curl -sf -o /dev/null -u sarah1:abc123 "http://localhost:$PORT/cashcards/$id"; then
+        missing=$((missing + 1))
+    fi
+done
+kill $pid
+wait $pid 2> /dev/null || true
+echo "Nach dem Neustart fehlen: $missing"
+[ "$missing" -eq 0 ]